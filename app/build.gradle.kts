@@ -29,6 +29,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // Testele JVM trec prin Log/Looper; din android.jar intorc valori implicite in loc sa arunce
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 android {
@@ -0,0 +1,86 @@
+package com.example.tcpclient;
+
+import android.util.Log;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Masoara o data pe telefon cat de repede merg AES-GCM si ChaCha20-Poly1305
+ * (pe procesoarele fara instructiuni AES, ChaCha e de cateva ori mai rapid)
+ * si tine ordinea rezultata. Ordinea e trimisa serverului in KYBER_CLIENT_FINISH;
+ * pana termina masuratoarea oferim AES primul, ca inainte.
+ */
+final class AeadBenchmark {
+    private static final int PAYLOAD_SIZE = 1024;
+    private static final int WARMUP_ROUNDS = 32;
+    private static final int ROUNDS = 256;
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static volatile List<AeadContext.Algorithm> ranking = null;
+
+    private AeadBenchmark() {
+    }
+
+    static void runAsync() {
+        if (!started.compareAndSet(false, true)) return;
+
+        Thread t = new Thread(AeadBenchmark::run, "aead-bench");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    // Algoritmii suportati, cel mai rapid primul
+    static List<AeadContext.Algorithm> preferred() {
+        List<AeadContext.Algorithm> result = ranking;
+        if (result != null) return result;
+
+        List<AeadContext.Algorithm> fallback = new ArrayList<>();
+        for (AeadContext.Algorithm algorithm : AeadContext.Algorithm.values()) {
+            if (algorithm.isSupported()) fallback.add(algorithm);
+        }
+        return fallback;
+    }
+
+    private static void run() {
+        byte[] keyBytes = new byte[32];
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(keyBytes);
+        random.nextBytes(payload);
+
+        List<AeadContext.Algorithm> supported = new ArrayList<>();
+        List<Long> timings = new ArrayList<>();
+        for (AeadContext.Algorithm algorithm : AeadContext.Algorithm.values()) {
+            if (!algorithm.isSupported()) continue;
+            try {
+                AeadContext ctx = AeadContext.forSession(new SecretKeySpec(keyBytes, algorithm.keyAlgorithm), algorithm);
+                if (ctx.getAlgorithm() != algorithm) continue;
+
+                for (int i = 0; i < WARMUP_ROUNDS; i++) ctx.decryptBytes(ctx.encrypt(payload));
+
+                long t = System.nanoTime();
+                for (int i = 0; i < ROUNDS; i++) ctx.decryptBytes(ctx.encrypt(payload));
+                long elapsed = System.nanoTime() - t;
+
+                supported.add(algorithm);
+                timings.add(elapsed);
+                Log.d("TCP", "AEAD " + algorithm.token + ": " + (elapsed / ROUNDS) + "ns / KB");
+            } catch (Exception e) {
+                Log.w("TCP", "AEAD " + algorithm.token + " indisponibil: " + e.getMessage());
+            }
+        }
+
+        List<AeadContext.Algorithm> ordered = new ArrayList<>(supported);
+        Collections.sort(ordered, (a, b) -> Long.compare(
+                timings.get(supported.indexOf(a)), timings.get(supported.indexOf(b))));
+        if (ordered.isEmpty()) ordered.add(AeadContext.Algorithm.AES_GCM);
+        ranking = Collections.unmodifiableList(ordered);
+    }
+}
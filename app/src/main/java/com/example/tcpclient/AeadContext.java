@@ -0,0 +1,184 @@
+package com.example.tcpclient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AEAD legat de o singura cheie, cu instante Cipher refolosite dintr-un pool,
+ * deci fara Cipher.getInstance si fara chei reconstruite la fiecare mesaj.
+ * Formatul e acelasi ca la CryptoHelper.encryptAndPack: iv (12) + ciphertext + tag,
+ * deci pe AES ramane compatibil cu ceilalti clienti si cu serverul.
+ * Tunelul poate folosi si ChaCha20-Poly1305, daca a fost negociat (vezi AeadBenchmark).
+ *
+ * Nonce: pentru cheia de tunel (noua la fiecare sesiune) folosim un prefix aleator
+ * de 4 octeti + un contor de 8, unic garantat pentru un context. Unicitatea e doar
+ * pe cheie, deci fiecare directie a tunelului trebuie sa aiba cheia ei (TunnelRatchet
+ * cu "dirkeys"); pe aceeasi cheie, doua prefixe egale ar repeta nonce-urile. Cheile de chat sunt
+ * impartite intre dispozitive si traiesc mult, deci acolo raman nonce-uri aleatoare.
+ */
+final class AeadContext {
+
+    enum Algorithm {
+        AES_GCM("aes", "AES", "AES/GCM/NoPadding"),
+        // Conscrypt (Android 9+) si BouncyCastle folosesc nume diferite
+        CHACHA20_POLY1305("chacha", "ChaCha20", "ChaCha20/Poly1305/NoPadding", "ChaCha20-Poly1305");
+
+        final String token;
+        final String keyAlgorithm;
+        private final String[] transformations;
+        private volatile String transformation;
+        private volatile boolean probed = false;
+
+        Algorithm(String token, String keyAlgorithm, String... transformations) {
+            this.token = token;
+            this.keyAlgorithm = keyAlgorithm;
+            this.transformations = transformations;
+        }
+
+        static Algorithm fromToken(String token) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.token.equals(token)) return algorithm;
+            }
+            return AES_GCM;
+        }
+
+        boolean isSupported() {
+            return transformation() != null;
+        }
+
+        String transformation() {
+            if (!probed) {
+                for (String candidate : transformations) {
+                    try {
+                        Cipher.getInstance(candidate);
+                        transformation = candidate;
+                        break;
+                    } catch (Exception ignored) {
+                    }
+                }
+                probed = true;
+            }
+            return transformation;
+        }
+    }
+
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int MAX_POOLED = 4;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final Algorithm algorithm;
+    private final SecretKey key;
+    private final boolean counterNonces;
+    private final byte[] noncePrefix = new byte[4];
+    private final AtomicLong counter = new AtomicLong();
+    private final Queue<Cipher> pool = new ConcurrentLinkedQueue<>();
+
+    private AeadContext(Algorithm algorithm, SecretKey key, boolean counterNonces) {
+        this.algorithm = algorithm;
+        this.key = new SecretKeySpec(key.getEncoded(), algorithm.keyAlgorithm);
+        this.counterNonces = counterNonces;
+        random.nextBytes(noncePrefix);
+    }
+
+    static AeadContext forSession(SecretKey sessionKey, Algorithm algorithm) {
+        // ChaCha20 cere exact 256 de biti; altfel ramanem pe AES
+        if (algorithm != Algorithm.AES_GCM
+                && (!algorithm.isSupported() || sessionKey.getEncoded().length != 32)) {
+            algorithm = Algorithm.AES_GCM;
+        }
+        return new AeadContext(algorithm, sessionKey, true);
+    }
+
+    // Mesajele de chat raman pe AES: le decripteaza si ceilalti membri, pe orice client
+    static AeadContext forChat(SecretKey chatKey) {
+        return new AeadContext(Algorithm.AES_GCM, chatKey, false);
+    }
+
+    Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    SecretKey getKey() {
+        return key;
+    }
+
+    byte[] encrypt(String text) throws Exception {
+        return encrypt(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    byte[] encrypt(byte[] plain) throws Exception {
+        byte[] iv = nextIv();
+        Cipher cipher = borrow();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters(iv, 0));
+            byte[] packed = new byte[IV_SIZE + cipher.getOutputSize(plain.length)];
+            System.arraycopy(iv, 0, packed, 0, IV_SIZE);
+            cipher.doFinal(plain, 0, plain.length, packed, IV_SIZE);
+            return packed;
+        } finally {
+            release(cipher);
+        }
+    }
+
+    String decrypt(byte[] packed) throws Exception {
+        return new String(decryptBytes(packed), StandardCharsets.UTF_8);
+    }
+
+    byte[] decryptBytes(byte[] packed) throws Exception {
+        if (packed == null || packed.length < IV_SIZE) {
+            throw new IllegalArgumentException("Ciphertext prea scurt");
+        }
+
+        Cipher cipher = borrow();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, parameters(packed, 0));
+            return cipher.doFinal(packed, IV_SIZE, packed.length - IV_SIZE);
+        } finally {
+            release(cipher);
+        }
+    }
+
+    private AlgorithmParameterSpec parameters(byte[] buf, int offset) {
+        if (algorithm == Algorithm.AES_GCM) return new GCMParameterSpec(TAG_BITS, buf, offset, IV_SIZE);
+        // Poly1305 are mereu tag de 128 de biti, se da doar nonce-ul
+        return new IvParameterSpec(buf, offset, IV_SIZE);
+    }
+
+    private byte[] nextIv() {
+        byte[] iv = new byte[IV_SIZE];
+        if (!counterNonces) {
+            random.nextBytes(iv);
+            return iv;
+        }
+
+        long n = counter.incrementAndGet();
+        System.arraycopy(noncePrefix, 0, iv, 0, 4);
+        for (int i = IV_SIZE - 1; i >= 4; i--) {
+            iv[i] = (byte) n;
+            n >>>= 8;
+        }
+        return iv;
+    }
+
+    private Cipher borrow() throws Exception {
+        Cipher cipher = pool.poll();
+        return cipher != null ? cipher : Cipher.getInstance(algorithm.transformation());
+    }
+
+    private void release(Cipher cipher) {
+        // Nu tinem mai multe decat thread-uri care cripteaza de obicei in paralel
+        if (pool.size() < MAX_POOLED) pool.offer(cipher);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.tcpclient;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import chat.GroupChat;
+
+/**
+ * Un chat din ultima lista cunoscuta. seq da ordinea din MainActivity:
+ * cel mai mare primul, chat-urile noi primesc max + 1 (apar sus).
+ */
+@Entity(tableName = "chats")
+public class CachedChat {
+    @PrimaryKey
+    public int id;
+
+    public String name;
+
+    public long seq;
+
+    static CachedChat from(GroupChat chat, long seq) {
+        CachedChat cached = new CachedChat();
+        cached.id = chat.getId();
+        cached.name = chat.getName();
+        cached.seq = seq;
+        return cached;
+    }
+
+    GroupChat toGroupChat() {
+        return new GroupChat(id, name);
+    }
+}
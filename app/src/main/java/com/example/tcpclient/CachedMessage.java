@@ -0,0 +1,39 @@
+package com.example.tcpclient;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import chat.Message;
+
+/**
+ * Un mesaj din cache-ul local al unui chat. content e ciphertext-ul primit de la
+ * server (cu cheia chat-ului), deci textul clar nu ajunge pe disc nici in baza criptata.
+ */
+@Entity(tableName = "messages", indices = {@Index(value = {"groupId", "id"})})
+public class CachedMessage {
+    @PrimaryKey
+    public int id;
+
+    public int groupId;
+
+    public int senderId;
+
+    public long timestamp;
+
+    public byte[] content;
+
+    static CachedMessage from(Message message) {
+        CachedMessage cached = new CachedMessage();
+        cached.id = message.getId();
+        cached.groupId = message.getGroupId();
+        cached.senderId = message.getSenderId();
+        cached.timestamp = message.getTimestamp();
+        cached.content = message.getContent();
+        return cached;
+    }
+
+    Message toMessage() {
+        return new Message(id, content, timestamp, senderId, groupId);
+    }
+}
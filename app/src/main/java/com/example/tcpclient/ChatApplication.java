@@ -0,0 +1,13 @@
+package com.example.tcpclient;
+
+import android.app.Application;
+
+public class ChatApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // BouncyCastle si clasele de criptare se incarca in fundal, nu pe drumul primului ecran
+        CryptoInit.start();
+    }
+}
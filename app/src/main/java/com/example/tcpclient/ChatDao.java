@@ -0,0 +1,30 @@
+package com.example.tcpclient;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ChatDao {
+    @Query("SELECT * FROM chats ORDER BY seq DESC")
+    List<CachedChat> all();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<CachedChat> chats);
+
+    @Query("SELECT COALESCE(MAX(seq), 0) FROM chats")
+    long maxSeq();
+
+    // Numarul de randuri schimbate; 0 = chat-ul nu era in lista
+    @Query("UPDATE chats SET name = :name WHERE id = :id")
+    int rename(int id, String name);
+
+    @Query("DELETE FROM chats WHERE id IN (:ids)")
+    void delete(List<Integer> ids);
+
+    @Query("DELETE FROM chats")
+    void clearAll();
+}
@@ -0,0 +1,99 @@
+package com.example.tcpclient;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SupportFactory;
+
+import java.security.SecureRandom;
+
+/**
+ * Baza locala, criptata cu SQLCipher. Parola e generata aleator la prima
+ * pornire si tinuta in EncryptedSharedPreferences, separat de preferintele
+ * sterse la logout. Schimbarile de schema au migrari explicite, ca outbox-ul
+ * (mesaje inca netrimise) sa nu se piarda la actualizare.
+ */
+@Database(entities = {OutboxEntry.class, CachedMessage.class, SyncState.class, CachedChat.class}, version = 4, exportSchema = false)
+public abstract class ChatDatabase extends RoomDatabase {
+    private static final String DB_NAME = "chat_local.db";
+    private static final String KEY_PREFS = "secure_db_prefs";
+    private static final String KEY_PASSPHRASE = "db_passphrase";
+
+    private static volatile ChatDatabase instance;
+
+    // v2: cache-ul de mesaje si starea sincronizarii
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages` (`id` INTEGER NOT NULL, `groupId` INTEGER NOT NULL, "
+                    + "`senderId` INTEGER NOT NULL, `timestamp` INTEGER NOT NULL, `content` BLOB, PRIMARY KEY(`id`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_groupId_id` ON `messages` (`groupId`, `id`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `sync_state` (`scope` TEXT NOT NULL, `lastId` INTEGER NOT NULL, "
+                    + "`cursor` INTEGER NOT NULL, PRIMARY KEY(`scope`))");
+        }
+    };
+
+    // v3: lista de chat-uri
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `chats` (`id` INTEGER NOT NULL, `name` TEXT, "
+                    + "`seq` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+        }
+    };
+
+    // v4: sync_state stie daca istoricul local ajunge pana la primul mesaj
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `sync_state` ADD COLUMN `reachedStart` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    public abstract OutboxDao outboxDao();
+
+    public abstract MessageDao messageDao();
+
+    public abstract SyncStateDao syncStateDao();
+
+    public abstract ChatDao chatDao();
+
+    public static ChatDatabase get(Context context) {
+        if (instance == null) {
+            synchronized (ChatDatabase.class) {
+                if (instance == null) {
+                    Context app = context.getApplicationContext();
+                    SQLiteDatabase.loadLibs(app);
+
+                    instance = Room.databaseBuilder(app, ChatDatabase.class, DB_NAME)
+                            .openHelperFactory(new SupportFactory(passphrase(app)))
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
+                            .build();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static byte[] passphrase(Context context) {
+        SharedPreferences prefs = SecureStorage.getEncryptedPrefs(context, KEY_PREFS);
+        String saved = prefs.getString(KEY_PASSPHRASE, null);
+        if (saved != null) {
+            return Base64.decode(saved, Base64.NO_WRAP);
+        }
+
+        byte[] passphrase = new byte[32];
+        new SecureRandom().nextBytes(passphrase);
+        prefs.edit().putString(KEY_PASSPHRASE, Base64.encodeToString(passphrase, Base64.NO_WRAP)).commit();
+        return passphrase;
+    }
+}
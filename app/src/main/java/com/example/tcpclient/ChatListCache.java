@@ -0,0 +1,136 @@
+package com.example.tcpclient;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import chat.GroupChat;
+
+/**
+ * Ultima lista de chat-uri cunoscuta, in baza criptata, plus versiunea ei pe server
+ * (SyncState "chats"). Cu "chatsync" MainActivity cere doar ce s-a schimbat de la
+ * versiunea asta; broadcast-urile CREATE/RENAME/DELETE_CHAT se aplica si aici, fara
+ * sa avanseze versiunea (urmatoarea diferenta le aduce din nou, iar aplicarea e idempotenta).
+ * Accesul la baza pe un singur thread de fundal, ca in MessageCache.
+ */
+final class ChatListCache {
+    private static final String SCOPE = "chats";
+
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-list-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile ChatDatabase db;
+
+    private ChatListCache() {
+    }
+
+    static void init(Context context) {
+        if (db != null) return;
+        Context app = context.getApplicationContext();
+        io.execute(() -> {
+            if (db != null) return;
+            try {
+                db = ChatDatabase.get(app);
+            } catch (Exception e) {
+                Log.e("CACHE", "Nu pot deschide baza locala: " + e.getMessage());
+            }
+        });
+    }
+
+    // Lista si versiunea ei, citite impreuna; fara baza, lista goala si versiunea 0
+    static CompletableFuture<Snapshot> load() {
+        return CompletableFuture.supplyAsync(() -> {
+            if (db == null) return new Snapshot(new ArrayList<>(), 0);
+
+            List<GroupChat> chats = new ArrayList<>();
+            for (CachedChat cached : db.chatDao().all()) chats.add(cached.toGroupChat());
+            SyncState state = db.syncStateDao().get(SCOPE);
+            return new Snapshot(chats, state == null ? 0 : state.cursor);
+        }, io);
+    }
+
+    // Lista intreaga (servere fara "chatsync" sau diferenta prea veche); version 0 = necunoscuta
+    static void replaceAll(List<GroupChat> chats, long version) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                db.chatDao().clearAll();
+                List<CachedChat> entities = new ArrayList<>(chats.size());
+                for (int i = 0; i < chats.size(); i++) entities.add(CachedChat.from(chats.get(i), chats.size() - i));
+                db.chatDao().insertAll(entities);
+                saveVersion(version);
+            });
+        });
+    }
+
+    static void apply(ClientDtos.ChatListDeltaDto delta) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                if (!delta.deleted.isEmpty()) db.chatDao().delete(delta.deleted);
+                for (GroupChat chat : delta.upserted) upsert(chat);
+                saveVersion(delta.version);
+            });
+        });
+    }
+
+    // CREATE_CHAT_BROADCAST / RENAME_CHAT_BROADCAST
+    static void put(GroupChat chat) {
+        io.execute(() -> {
+            if (db != null) upsert(chat);
+        });
+    }
+
+    static void rename(int chatId, String name) {
+        io.execute(() -> {
+            if (db != null) db.chatDao().rename(chatId, name);
+        });
+    }
+
+    static void delete(int chatId) {
+        io.execute(() -> {
+            if (db != null) db.chatDao().delete(Collections.singletonList(chatId));
+        });
+    }
+
+    static void clear() {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                db.chatDao().clearAll();
+                db.syncStateDao().delete(SCOPE);
+            });
+        });
+    }
+
+    private static void upsert(GroupChat chat) {
+        if (db.chatDao().rename(chat.getId(), chat.getName()) > 0) return;
+        db.chatDao().insertAll(Collections.singletonList(CachedChat.from(chat, db.chatDao().maxSeq() + 1)));
+    }
+
+    private static void saveVersion(long version) {
+        SyncState state = new SyncState();
+        state.scope = SCOPE;
+        state.cursor = version;
+        db.syncStateDao().save(state);
+    }
+
+    static final class Snapshot {
+        final List<GroupChat> chats;
+        final long version;
+
+        Snapshot(List<GroupChat> chats, long version) {
+            this.chats = chats;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.tcpclient;
+
+import java.io.Serializable;
+import java.util.List;
+
+import chat.GroupChat;
+import chat.Message;
+
+/**
+ * DTO-uri pentru extensiile de protocol ale clientului, care nu sunt in chat-lib.
+ * Trimise doar daca serverul a acceptat optiunea corespunzatoare in handshake.
+ */
+public class ClientDtos {
+
+    // GET_MESSAGES_REQUEST cu "page": cele mai noi `limit` mesaje cu id < beforeId (0 = de la capat)
+    public static class HistoryPageDto implements Serializable {
+        public int chatId;
+        public int beforeId;
+        public int limit;
+
+        public HistoryPageDto() {
+        }
+
+        public HistoryPageDto(int chatId, int beforeId, int limit) {
+            this.chatId = chatId;
+            this.beforeId = beforeId;
+            this.limit = limit;
+        }
+    }
+
+    // GET_MESSAGES_REQUEST cu "sync": mesajele cu id > afterId (cel mult `limit`, cele mai noi),
+    // plus editarile si stergerile facute dupa `since` la mesajele cu id <= afterId
+    public static class HistorySyncDto implements Serializable {
+        public int chatId;
+        public int afterId;
+        public long since;
+        public int limit;
+
+        public HistorySyncDto() {
+        }
+
+        public HistorySyncDto(int chatId, int afterId, long since, int limit) {
+            this.chatId = chatId;
+            this.afterId = afterId;
+            this.since = since;
+            this.limit = limit;
+        }
+    }
+
+    // Raspunsul la HistorySyncDto: GET_MESSAGES_RESPONSE cu obiect in loc de lista.
+    // hasMore = au fost mai mult de `limit` mesaje noi, deci golul nu s-a umplut; syncedAt
+    // e ceasul serverului, urmatorul `since`
+    public static class HistorySyncResultDto implements Serializable {
+        public List<Message> messages;
+        public List<Message> edited;
+        public List<Integer> deleted;
+        public long syncedAt;
+        public boolean hasMore;
+
+        public HistorySyncResultDto() {
+        }
+    }
+
+    // GET_CHATS_REQUEST cu "chatsync": ultima versiune a listei pe care o avem (0 = niciuna)
+    public static class ChatListSyncDto implements Serializable {
+        public long version;
+
+        public ChatListSyncDto() {
+        }
+
+        public ChatListSyncDto(long version) {
+            this.version = version;
+        }
+    }
+
+    // Raspunsul la ChatListSyncDto: GET_CHATS_RESPONSE cu obiect in loc de lista.
+    // upserted = chat-uri create sau redenumite dupa `version`, in ordinea crearii;
+    // full = serverul nu mai stie diferenta, upserted e toata lista (ordinea ca la GET_CHATS)
+    public static class ChatListDeltaDto implements Serializable {
+        public long version;
+        public boolean full;
+        public List<GroupChat> upserted;
+        public List<Integer> deleted;
+
+        public ChatListDeltaDto() {
+        }
+    }
+}
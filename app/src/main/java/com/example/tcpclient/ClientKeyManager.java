@@ -8,6 +8,8 @@ import androidx.security.crypto.MasterKey;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -15,6 +17,9 @@ import chat.CryptoHelper;
 
 public class ClientKeyManager {
     private static final String PREF_FILE_NAME = "secure_chat_keys";
+    // Contextele AES per chat, comune tuturor instantelor (cheile sunt aceleasi in tot procesul)
+    private static final Map<Integer, AeadContext> contexts = new ConcurrentHashMap<>();
+
     private SharedPreferences securePrefs;
 
     public ClientKeyManager(Context context) {
@@ -43,6 +48,7 @@ public class ClientKeyManager {
 
     public void saveKey(int chatId, String base64Key) {
         securePrefs.edit().putString(String.valueOf(chatId), base64Key).apply();
+        contexts.remove(chatId);
     }
 
     public SecretKey getKey(int chatId) {
@@ -53,6 +59,19 @@ public class ClientKeyManager {
         return new SecretKeySpec(decoded, "AES");
     }
 
+    // Pentru criptarea mesajelor: cheia se citeste o data, cipher-ele se refolosesc
+    AeadContext getContext(int chatId) {
+        AeadContext ctx = contexts.get(chatId);
+        if (ctx != null) return ctx;
+
+        SecretKey key = getKey(chatId);
+        if (key == null) return null;
+
+        ctx = AeadContext.forChat(key);
+        AeadContext existing = contexts.putIfAbsent(chatId, ctx);
+        return existing != null ? existing : ctx;
+    }
+
     public String generateAndSaveKey(int chatId) {
         try {
             SecretKey key = CryptoHelper.generateAESKey(256);
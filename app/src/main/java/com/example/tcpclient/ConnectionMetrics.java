@@ -0,0 +1,187 @@
+package com.example.tcpclient;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import chat.PacketType;
+
+/**
+ * Masuratori pentru conexiune: fazele handshake-ului, criptare/decriptare,
+ * asteptarea in coada de trimitere si trafic pe fiecare PacketType.
+ * Timpii merg in histograme cu bucket-uri pe puteri de 2 (in microsecunde),
+ * deci o inregistrare e doar cateva operatii atomice, fara alocari.
+ * dump() da un text pentru log / ecran de debug.
+ */
+public final class ConnectionMetrics {
+
+    public enum Timer {
+        HANDSHAKE_TOTAL,
+        HANDSHAKE_HELLO_WAIT,
+        HANDSHAKE_KYBER,
+        HANDSHAKE_ECDH,
+        HANDSHAKE_RESUME,
+        ENCRYPT,
+        DECRYPT,
+        SEND_QUEUE_WAIT,
+        HEARTBEAT_RTT
+    }
+
+    public static final class Histogram {
+        // bucket i = valori in [2^(i-1), 2^i) us, bucket 0 = sub 1us
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sumMicros.addAndGet(micros);
+
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMeanMicros() {
+            long n = count.get();
+            return n == 0 ? 0 : sumMicros.get() / n;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros.get();
+        }
+
+        // Limita de sus a bucket-ului in care cade percentila, deci aproximativ (max x2)
+        public long percentileMicros(double p) {
+            long n = count.get();
+            if (n == 0) return 0;
+
+            long rank = (long) Math.ceil(p / 100.0 * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(1L << i, maxMicros.get());
+            }
+            return maxMicros.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.set(0);
+            sumMicros.set(0);
+            maxMicros.set(0);
+        }
+    }
+
+    private static final Histogram[] timers = new Histogram[Timer.values().length];
+
+    // Pe fiecare PacketType: [pachete trimise, octeti trimisi, pachete primite, octeti primiti]
+    private static final PacketType[] types = PacketType.values();
+    private static final AtomicLongArray traffic = new AtomicLongArray(types.length * 4);
+
+    static {
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Histogram();
+        }
+    }
+
+    private ConnectionMetrics() {
+    }
+
+    static void record(Timer timer, long nanos) {
+        timers[timer.ordinal()].record(nanos);
+    }
+
+    static void recordSent(PacketType type, int bytes) {
+        if (type == null) return;
+        traffic.incrementAndGet(type.ordinal() * 4);
+        traffic.addAndGet(type.ordinal() * 4 + 1, bytes);
+    }
+
+    static void recordReceived(PacketType type, int bytes) {
+        if (type == null) return;
+        traffic.incrementAndGet(type.ordinal() * 4 + 2);
+        traffic.addAndGet(type.ordinal() * 4 + 3, bytes);
+    }
+
+    // Un record cu mai multe pachete (BATCH): octetii de pe fir impartiti proportional
+    // cu weights (marimea in clar a fiecaruia); restul impartirii merge la ultimul
+    static void recordSent(List<PacketType> packetTypes, int[] weights, int bytes) {
+        int[] shares = split(weights, bytes);
+        for (int i = 0; i < shares.length; i++) recordSent(packetTypes.get(i), shares[i]);
+    }
+
+    static void recordReceived(List<PacketType> packetTypes, int[] weights, int bytes) {
+        int[] shares = split(weights, bytes);
+        for (int i = 0; i < shares.length; i++) recordReceived(packetTypes.get(i), shares[i]);
+    }
+
+    static int[] split(int[] weights, int bytes) {
+        long total = 0;
+        for (int w : weights) total += w;
+
+        int[] shares = new int[weights.length];
+        int assigned = 0;
+        for (int i = 0; i < weights.length - 1; i++) {
+            shares[i] = total == 0 ? bytes / weights.length : (int) ((long) bytes * weights[i] / total);
+            assigned += shares[i];
+        }
+        if (weights.length > 0) shares[weights.length - 1] = bytes - assigned;
+        return shares;
+    }
+
+    public static Histogram get(Timer timer) {
+        return timers[timer.ordinal()];
+    }
+
+    public static long packetsSent(PacketType type) {
+        return traffic.get(type.ordinal() * 4);
+    }
+
+    public static long bytesSent(PacketType type) {
+        return traffic.get(type.ordinal() * 4 + 1);
+    }
+
+    public static long packetsReceived(PacketType type) {
+        return traffic.get(type.ordinal() * 4 + 2);
+    }
+
+    public static long bytesReceived(PacketType type) {
+        return traffic.get(type.ordinal() * 4 + 3);
+    }
+
+    public static void reset() {
+        for (Histogram histogram : timers) histogram.reset();
+        for (int i = 0; i < traffic.length(); i++) traffic.set(i, 0);
+    }
+
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Timpi (us): count / medie / p50 / p99 / max\n");
+        for (Timer timer : Timer.values()) {
+            Histogram h = get(timer);
+            if (h.getCount() == 0) continue;
+            sb.append(String.format(Locale.US, "  %-20s %6d %8d %8d %8d %8d%n", timer, h.getCount(),
+                    h.getMeanMicros(), h.percentileMicros(50), h.percentileMicros(99), h.getMaxMicros()));
+        }
+
+        sb.append("Trafic: trimise (pachete/octeti) | primite (pachete/octeti)\n");
+        for (PacketType type : types) {
+            if (packetsSent(type) == 0 && packetsReceived(type) == 0) continue;
+            sb.append(String.format(Locale.US, "  %-26s %6d %10d | %6d %10d%n", type,
+                    packetsSent(type), bytesSent(type), packetsReceived(type), bytesReceived(type)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.tcpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import chat.ChatDtos;
+import chat.Message;
+import chat.NetworkPacket;
+import chat.PacketType;
+import chat.User;
+
+/**
+ * Tine utilizatorul conectat dupa login. Cand thread-ul de citire pierde
+ * conexiunea, reface conectarea cu backoff exponential cu jitter, trimite
+ * din nou LOGIN, intra inapoi in chat-ul deschis si trimite pachetele puse
+ * deoparte cat timp am fost offline, in ordine si cu acelasi id.
+ * Tot aici se filtreaza pachetele primite de doua ori dupa o retrimitere.
+ */
+final class ConnectionSupervisor {
+    private static final long BASE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 30_000;
+    private static final int MAX_OFFLINE = 128;
+    private static final int RECENT_IDS = 512;
+
+    interface Listener {
+        // Ambele pe UI thread
+        void onReconnected();
+
+        void onSessionRejected();
+    }
+
+    private static final class HeldPacket {
+        final NetworkPacket packet;
+        final int packetId;
+        final CompletableFuture<Void> future;
+
+        HeldPacket(NetworkPacket packet, int packetId, CompletableFuture<Void> future) {
+            this.packet = packet;
+            this.packetId = packetId;
+            this.future = future;
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<HeldPacket> offline = new ArrayDeque<>();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tcp-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Ultimele id-uri vazute, ca un raspuns / mesaj venit de doua ori sa nu ajunga de doua ori la UI
+    private static final Map<Long, Boolean> recentIds = new LinkedHashMap<Long, Boolean>(RECENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_IDS;
+        }
+    };
+
+    // Toate de mai jos sub lock
+    private static String host;
+    private static int port;
+    private static ChatDtos.AuthDto credentials;
+    private static boolean reconnecting = false;
+    // Pachetele puse deoparte se trimit dupa reconectare; pana se golesc, cele noi asteapta dupa ele
+    private static boolean replaying = false;
+    private static int attempt = 0;
+
+    private static volatile int activeChatId = -1;
+
+    private ConnectionSupervisor() {
+    }
+
+    static void start(String serverHost, int serverPort, ChatDtos.AuthDto auth) {
+        synchronized (lock) {
+            host = serverHost;
+            port = serverPort;
+            credentials = auth;
+        }
+        Outbox.resendAll();
+    }
+
+    // La logout: nu mai reconectam si aruncam ce era pus deoparte
+    static void stop() {
+        synchronized (lock) {
+            credentials = null;
+            reconnecting = false;
+            replaying = false;
+            activeChatId = -1;
+            failHeld(new IOException("Sesiune inchisa"));
+        }
+        synchronized (recentIds) {
+            recentIds.clear();
+        }
+    }
+
+    static boolean isActive() {
+        synchronized (lock) {
+            return credentials != null;
+        }
+    }
+
+    static void setActiveChat(int chatId) {
+        activeChatId = chatId;
+    }
+
+    static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static void onConnectionLost() {
+        synchronized (lock) {
+            if (credentials == null || reconnecting) return;
+            reconnecting = true;
+            attempt = 0;
+            scheduleAttempt();
+        }
+        Log.w("TCP", "Conexiune pierduta, reconectare...");
+    }
+
+    static void reconnectNow() {
+        onConnectionLost();
+    }
+
+    // Cat timp ne reconectam sau mai sunt pachete de retrimis, pachetele noi asteapta dupa ele
+    static boolean holdIfOffline(NetworkPacket packet, int packetId, CompletableFuture<Void> future) {
+        synchronized (lock) {
+            if (credentials == null || (!reconnecting && !replaying && offline.isEmpty())) return false;
+            hold(packet, packetId, future);
+            return true;
+        }
+    }
+
+    // Scrierea a picat: pastram pachetul cu acelasi id, serverul il poate recunoaste la retrimitere
+    static boolean holdAfterFailure(NetworkPacket packet, int packetId, CompletableFuture<Void> future) {
+        synchronized (lock) {
+            if (credentials == null) return false;
+            hold(packet, packetId, future);
+        }
+        onConnectionLost();
+        return true;
+    }
+
+    static boolean isDuplicate(InboundPacket packet) {
+        // Tip necunoscut (server mai nou): nu avem dupa ce sa-l recunoastem
+        if (packet.getType() == null) return false;
+
+        long key;
+        if (packet.getRequestId() != 0) {
+            key = ((long) packet.getType().ordinal() << 32) | (packet.getRequestId() & 0xFFFFFFFFL);
+        } else if (packet.getType() == PacketType.RECEIVE_MESSAGE && packet.getPayload() instanceof Message) {
+            key = (1L << 62) | ((Message) packet.getPayload()).getId();
+        } else {
+            return false;
+        }
+
+        synchronized (recentIds) {
+            return recentIds.put(key, Boolean.TRUE) != null;
+        }
+    }
+
+    private static void hold(NetworkPacket packet, int packetId, CompletableFuture<Void> future) {
+        if (offline.size() >= MAX_OFFLINE) {
+            future.completeExceptionally(new IOException("Prea multe pachete in asteptare"));
+            return;
+        }
+        offline.addLast(new HeldPacket(packet, packetId, future));
+    }
+
+    private static void failHeld(Exception cause) {
+        HeldPacket held;
+        while ((held = offline.pollFirst()) != null) {
+            held.future.completeExceptionally(cause);
+        }
+    }
+
+    // Pachetele se scot din coada sub lock, dar se trimit in afara lui: offer() poate astepta
+    // dupa o banda plina, iar esecul scrierii (holdAfterFailure) are nevoie de lock.
+    // Cat timp replaying e true, pachetele noi intra tot in coada, deci ordinea ramane.
+    // Daca o scriere pica din nou, pachetul revine in coada si porneste alta reconectare.
+    private static int replayHeld() {
+        int replayed = 0;
+        while (true) {
+            List<HeldPacket> replay;
+            synchronized (lock) {
+                if (!replaying) return replayed;
+                if (reconnecting || offline.isEmpty()) {
+                    // Gata, sau alta reconectare le preia pe cele ramase
+                    replaying = false;
+                    return replayed;
+                }
+                replay = new ArrayList<>(offline);
+                offline.clear();
+            }
+
+            replayed += replay.size();
+            for (HeldPacket held : replay) {
+                TcpConnection.transmit(held.packet, held.packetId, held.future);
+            }
+        }
+    }
+
+    // Full jitter: intre 0 si min(max, base * 2^incercare)
+    private static void scheduleAttempt() {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        scheduler.schedule(ConnectionSupervisor::tryReconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void tryReconnect() {
+        String serverHost;
+        int serverPort;
+        ChatDtos.AuthDto auth;
+        synchronized (lock) {
+            if (credentials == null) return;
+            serverHost = host;
+            serverPort = port;
+            auth = credentials;
+        }
+
+        User user;
+        try {
+            TcpConnection.close();
+            NetworkPacket login = new NetworkPacket(PacketType.LOGIN_REQUEST, 0, auth);
+            InboundPacket response = TcpConnection.connectAndRequest(serverHost, serverPort, login,
+                    TcpConnection.DEFAULT_TIMEOUT_MS).get();
+
+            JsonElement payload = response.getPayload();
+            user = payload != null && payload.isJsonObject() ? PacketCodec.GSON.fromJson(payload, User.class) : null;
+        } catch (Exception e) {
+            Log.w("TCP", "Reconectare esuata (" + e.getMessage() + ")");
+            TcpConnection.close();
+            synchronized (lock) {
+                if (credentials == null) return;
+                attempt++;
+                scheduleAttempt();
+            }
+            return;
+        }
+
+        if (user == null) {
+            // Serverul a refuzat datele de login, nu are rost sa mai incercam
+            Log.e("TCP", "Re-login refuzat.");
+            TcpConnection.close();
+            stop();
+            for (Listener listener : listeners) {
+                mainHandler.post(listener::onSessionRejected);
+            }
+            return;
+        }
+
+        boolean loggedOut;
+        synchronized (lock) {
+            // Logout in timpul re-login-ului: nu reconectam utilizatorul inapoi
+            loggedOut = credentials == null;
+            if (!loggedOut) {
+                TcpConnection.setCurrentUser(user);
+                TcpConnection.setCurrentUserId(user.getId());
+                reconnecting = false;
+                replaying = true;
+                attempt = 0;
+            }
+        }
+        if (loggedOut) {
+            TcpConnection.close();
+            return;
+        }
+
+        int chatId = activeChatId;
+        if (chatId != -1) {
+            NetworkPacket enter = new NetworkPacket(PacketType.ENTER_CHAT_REQUEST, user.getId(), chatId);
+            TcpConnection.request(enter, TcpConnection.DEFAULT_TIMEOUT_MS).whenComplete((resp, error) -> {
+                if (error != null) Log.w("TCP", "ENTER_CHAT fara raspuns: " + error.getMessage());
+            });
+        }
+
+        int replayed = replayHeld();
+        synchronized (lock) {
+            if (credentials == null) return;
+        }
+
+        // Ce a ramas in outbox (nescris, sau neconfirmat cu "ack") pleaca din nou, cu acelasi clientId
+        Outbox.resendAll();
+
+        Log.d("TCP", "Reconectat. Pachete retrimise: " + replayed);
+        for (Listener listener : listeners) {
+            mainHandler.post(listener::onReconnected);
+        }
+    }
+}
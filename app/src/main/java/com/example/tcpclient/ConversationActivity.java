@@ -21,29 +21,25 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.crypto.SecretKey;
-
 import chat.ChatDtos;
-import chat.CryptoHelper;
 import chat.Message;
 import chat.NetworkPacket;
 import chat.PacketType;
 
 public class ConversationActivity extends AppCompatActivity {
-    public volatile List<Message> messages = new ArrayList<>();
+    private final MessageStore messages = new MessageStore();
     RecyclerView recyclerView;
     MessageAdapter messageAdapter;
 
     private int currentChatId = -1;
-    private final Gson gson = new Gson();
     private ClientKeyManager keyManager;
+    private MessageDecryptor decryptor;
+    private MessagePager pager;
+
+    private final List<PacketDispatcher.Subscription> subscriptions = new ArrayList<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -81,13 +77,28 @@ public class ConversationActivity extends AppCompatActivity {
         if(chatName != null) txtChatName.setText(chatName);
 
         recyclerView = findViewById(R.id.recyclerViewMessages);
-        messageAdapter = new MessageAdapter(this, messages, TcpConnection.getCurrentUserId(), this::handleLongMessageClick);
+        decryptor = new MessageDecryptor(currentChatId, keyManager, this::onMessageDecrypted);
+        messageAdapter = new MessageAdapter(this, messages.items(), TcpConnection.getCurrentUserId(), decryptor, this::handleLongMessageClick);
+        messages.attach(messageAdapter);
 
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
         layoutManager.setStackFromEnd(true);
         recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(messageAdapter);
 
+        pager = new MessagePager(currentChatId, decryptor, new MessagePager.Listener() {
+            @Override
+            public void onPage(List<Message> page, boolean newest) {
+                onHistoryPage(page, newest);
+            }
+
+            @Override
+            public void onSync(ClientDtos.HistorySyncResultDto delta) {
+                onHistorySync(delta);
+            }
+        });
+        pager.attach(recyclerView);
+
         View btnBack = findViewById(R.id.btnBackArrow);
         btnBack.setOnClickListener(v -> handleBackPress());
 
@@ -114,122 +125,142 @@ public class ConversationActivity extends AppCompatActivity {
         }
     }
 
-    private void decryptMessageInPlace(Message m) {
-        SecretKey key = keyManager.getKey(currentChatId);
-        if (key == null) return;
-
-        try {
-            String clearText = CryptoHelper.unpackAndDecrypt(key, m.getContent());
-            m.setContent(clearText.getBytes());
-        } catch (Exception e) {
-             Log.e("DECRYPT", "Fail " + e.getMessage());
-        }
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
-        TcpConnection.setPacketListener(this::handlePacketOnUI);
+        TcpConnection.setActive(true);
+        subscribePackets();
         sendEnterChatRequest();
+        // Serverele fara "page"/"sync" trimit singure tot istoricul dupa ENTER_CHAT (vezi onHistory)
+        if (currentChatId != -1) pager.open();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        TcpConnection.setPacketListener(null);
+        TcpConnection.setActive(false);
+        PacketDispatcher.cancelAll(subscriptions);
         sendExitChatRequest();
     }
 
-    private void handlePacketOnUI(NetworkPacket packet) {
-        runOnUiThread(() -> handlePacket(packet));
+    private void subscribePackets() {
+        PacketDispatcher.cancelAll(subscriptions);
+
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.EXCHANGE_SESSION_KEY, this::saveSessionKey, this::onSessionKey));
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.GET_MESSAGES_RESPONSE, this::decryptHistory, this::onHistory));
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.RECEIVE_MESSAGE, this::decryptReceived, this::onMessageReceived));
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.EDIT_MESSAGE_BROADCAST, this::decryptEdit, this::onMessageEdited));
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.DELETE_MESSAGE_BROADCAST, this::onMessageDeleted));
     }
 
-    private void handlePacket(NetworkPacket packet) {
-        try {
-            switch (packet.getType()) {
-                case EXCHANGE_SESSION_KEY:
-                    ChatDtos.SessionKeyDto keyDto = gson.fromJson(packet.getPayload(), ChatDtos.SessionKeyDto.class);
-
-                    Log.d("KEY_DEBUG", "Am primit o cheie pt ChatID: " + keyDto.chatId + " | ChatCurent: " + currentChatId);
-
-                    if (keyDto.chatId == currentChatId) {
-                        keyManager.saveKey(keyDto.chatId, keyDto.aesKeyBase64);
-
-                        Toast.makeText(this, "Cheie primită! Mesajele se vor decripta.", Toast.LENGTH_SHORT).show();
-
-                        messageAdapter.notifyDataSetChanged();
-                    } else {
-                        keyManager.saveKey(keyDto.chatId, keyDto.aesKeyBase64);
-                        Log.d("KEY_DEBUG", "Cheie salvata in fundal.");
-                    }
-                    break;
-
-                case GET_MESSAGES_RESPONSE:
-                    Type listType = new TypeToken<List<Message>>(){}.getType();
-                    List<Message> history = gson.fromJson(packet.getPayload(), listType);
-
-                    messages.clear();
-                    if (history != null) {
-                        for(Message m : history) decryptMessageInPlace(m);
-                        messages.addAll(history);
-                    }
-                    messageAdapter.notifyDataSetChanged();
-                    scrollToBottom();
-                    break;
-
-                case RECEIVE_MESSAGE:
-                    Message msg = gson.fromJson(packet.getPayload(), Message.class);
-                    if (msg != null) {
-                        decryptMessageInPlace(msg);
-                        messages.add(msg);
-                        messageAdapter.notifyDataSetChanged();
-                        scrollToBottom();
-                    }
-                    break;
-
-                case EDIT_MESSAGE_BROADCAST:
-                    ChatDtos.EditMessageDto editDto = gson.fromJson(packet.getPayload(), ChatDtos.EditMessageDto.class);
-                    for (int i = 0; i < messages.size(); i++) {
-                        if (messages.get(i).getId() == editDto.messageId) {
-
-                            byte[] finalContent = editDto.newContent;
-
-                            SecretKey key = keyManager.getKey(currentChatId);
-                            if (key != null) {
-                                try {
-                                    String decrypted = CryptoHelper.unpackAndDecrypt(key, editDto.newContent);
-                                    finalContent = decrypted.getBytes();
-                                } catch (Exception e) {
-                                }
-                            }
-
-                            messages.get(i).setContent(finalContent);
-                            messageAdapter.notifyItemChanged(i);
-                            break;
-                        }
-                    }
-                    break;
-
-                case DELETE_MESSAGE_BROADCAST:
-                    int deletedId = gson.fromJson(packet.getPayload(), Integer.class);
-                    for (int i = 0; i < messages.size(); i++) {
-                        if (messages.get(i).getId() == deletedId) {
-                            messages.remove(i);
-                            messageAdapter.notifyDataSetChanged();
-                            break;
-                        }
-                    }
-                    break;
-
-                case EXIT_CHAT_RESPONSE:
-                    finish();
-                    break;
-
-                case ENTER_CHAT_RESPONSE: break;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    private ChatDtos.SessionKeyDto saveSessionKey(InboundPacket packet) {
+        ChatDtos.SessionKeyDto keyDto = packet.getPayload();
+
+        Log.d("KEY_DEBUG", "Am primit o cheie pt ChatID: " + keyDto.chatId + " | ChatCurent: " + currentChatId);
+        keyManager.saveKey(keyDto.chatId, keyDto.aesKeyBase64);
+
+        if (keyDto.chatId != currentChatId) {
+            Log.d("KEY_DEBUG", "Cheie salvata in fundal.");
+            return null;
         }
+        return keyDto;
+    }
+
+    private void onSessionKey(ChatDtos.SessionKeyDto keyDto) {
+        Toast.makeText(this, "Cheie primită! Mesajele se vor decripta.", Toast.LENGTH_SHORT).show();
+        messageAdapter.notifyDataSetChanged();
+    }
+
+    // Pe thread-ul dispatcher-ului: doar mesajele de pe ecran, in paralel; restul la afisare
+    private List<Message> decryptHistory(InboundPacket packet) {
+        // Cu "page"/"sync" istoricul vine doar ca raspuns la cereri; un raspuns intarziat nu inlocuieste nimic
+        if (TcpConnection.hasFeature(ProtocolFeatures.PAGED_HISTORY) || TcpConnection.hasFeature(ProtocolFeatures.HISTORY_SYNC)) {
+            return null;
+        }
+        Object payload = packet.getPayload();
+        if (!(payload instanceof List)) return new ArrayList<>();
+
+        List<Message> history = packet.getPayload();
+
+        decryptor.decryptAll(MessagePager.tail(history, MessagePager.VISIBLE_TAIL)).join();
+        return history;
+    }
+
+    // Tot istoricul, trimis de serverele vechi dupa ENTER_CHAT
+    private void onHistory(List<Message> history) {
+        pager.onFullHistory(history);
+        showNewest(history);
+    }
+
+    private void onHistoryPage(List<Message> page, boolean newest) {
+        if (newest) {
+            showNewest(page);
+            return;
+        }
+        messages.prepend(page);
+    }
+
+    private void showNewest(List<Message> page) {
+        messages.replaceAll(page, () -> {
+            scrollToBottom();
+            pager.onShown();
+        });
+    }
+
+    // Ce s-a schimbat pe server fata de cache-ul afisat
+    private void onHistorySync(ClientDtos.HistorySyncResultDto delta) {
+        for (Integer id : delta.deleted) {
+            messages.remove(id);
+            decryptor.invalidate(id);
+        }
+        for (Message m : delta.edited) {
+            messages.updateContent(m.getId(), m.getContent());
+        }
+        for (Message m : delta.messages) {
+            messages.append(m);
+        }
+        if (!delta.messages.isEmpty()) scrollToBottom();
+    }
+
+    private Message decryptReceived(InboundPacket packet) {
+        Message msg = packet.getPayload();
+        // poate fi un pachet tinut de dispatcher de pe alt chat
+        if (msg == null || msg.getGroupId() != currentChatId) return null;
+
+        decryptor.decrypt(msg);
+        MessageCache.store(msg, pager.isSynced());
+        return msg;
+    }
+
+    private void onMessageReceived(Message msg) {
+        messages.append(msg);
+        scrollToBottom();
+    }
+
+    private ChatDtos.EditMessageDto decryptEdit(InboundPacket packet) {
+        ChatDtos.EditMessageDto editDto = packet.getPayload();
+
+        // Textul nou intra in cache inainte ca randul sa fie redesenat
+        decryptor.invalidate(editDto.messageId);
+        decryptor.decrypt(editDto.messageId, editDto.newContent);
+        MessageCache.updateContent(editDto.messageId, editDto.newContent);
+        return editDto;
+    }
+
+    private void onMessageEdited(ChatDtos.EditMessageDto editDto) {
+        messages.updateContent(editDto.messageId, editDto.newContent);
+    }
+
+    private void onMessageDecrypted(int messageId) {
+        int position = messages.positionOf(messageId);
+        if (position >= 0) messages.changed(position);
+    }
+
+    private void onMessageDeleted(InboundPacket packet) {
+        int deletedId = packet.<Integer>getPayload();
+        messages.remove(deletedId);
+        decryptor.invalidate(deletedId);
+        MessageCache.delete(deletedId);
     }
 
     public void handleMessage(View view) {
@@ -238,7 +269,7 @@ public class ConversationActivity extends AppCompatActivity {
 
         if (text.isEmpty()) return;
 
-        SecretKey key = keyManager.getKey(currentChatId);
+        AeadContext key = keyManager.getContext(currentChatId);
 
         if (key == null) {
             Toast.makeText(this, "Se negociază criptarea...", Toast.LENGTH_SHORT).show();
@@ -247,10 +278,10 @@ public class ConversationActivity extends AppCompatActivity {
         }
 
         try {
-            byte[] encryptedContent = CryptoHelper.encryptAndPack(key, text);
+            byte[] encryptedContent = key.encrypt(text);
             Message msg = new Message(0, encryptedContent, 0, TcpConnection.getCurrentUserId(), currentChatId);
-            NetworkPacket packet = new NetworkPacket(PacketType.SEND_MESSAGE, TcpConnection.getCurrentUserId(), msg);
-            TcpConnection.sendPacket(packet);
+            NetworkPacket packet = PacketCodec.newPacket(PacketType.SEND_MESSAGE, TcpConnection.getCurrentUserId(), msg);
+            Outbox.enqueue(packet);
 
             messageBox.setText("");
         } catch (Exception e) {
@@ -259,14 +290,14 @@ public class ConversationActivity extends AppCompatActivity {
     }
 
     private void performEdit(int messageId, String newText) {
-        SecretKey key = keyManager.getKey(currentChatId);
+        AeadContext key = keyManager.getContext(currentChatId);
         if (key == null) return;
 
         try {
-            byte[] encryptedContent = CryptoHelper.encryptAndPack(key, newText);
+            byte[] encryptedContent = key.encrypt(newText);
             ChatDtos.EditMessageDto dto = new ChatDtos.EditMessageDto(messageId, encryptedContent);
-            NetworkPacket packet = new NetworkPacket(PacketType.EDIT_MESSAGE_REQUEST, TcpConnection.getCurrentUserId(), dto);
-            TcpConnection.sendPacket(packet);
+            NetworkPacket packet = PacketCodec.newPacket(PacketType.EDIT_MESSAGE_REQUEST, TcpConnection.getCurrentUserId(), dto);
+            Outbox.enqueue(packet);
         } catch (Exception e) {
             Toast.makeText(this, "Fail Edit Encrypt", Toast.LENGTH_SHORT).show();
         }
@@ -274,19 +305,25 @@ public class ConversationActivity extends AppCompatActivity {
 
     private void performDelete(int messageId) {
         NetworkPacket packet = new NetworkPacket(PacketType.DELETE_MESSAGE_REQUEST, TcpConnection.getCurrentUserId(), messageId);
-        TcpConnection.sendPacket(packet);
+        Outbox.enqueue(packet);
     }
 
     private void sendEnterChatRequest() {
         if (currentChatId != -1) {
+            ConnectionSupervisor.setActiveChat(currentChatId);
             NetworkPacket packet = new NetworkPacket(PacketType.ENTER_CHAT_REQUEST, TcpConnection.getCurrentUserId(), currentChatId);
-            TcpConnection.sendPacket(packet);
+            TcpConnection.request(packet, TcpConnection.DEFAULT_TIMEOUT_MS).whenComplete((resp, error) -> {
+                if (error != null) Log.w("TCP", "ENTER_CHAT fara raspuns: " + error.getMessage());
+            });
         }
     }
 
     private void sendExitChatRequest() {
+        ConnectionSupervisor.setActiveChat(-1);
         NetworkPacket packet = new NetworkPacket(PacketType.EXIT_CHAT_REQUEST, TcpConnection.getCurrentUserId());
-        TcpConnection.sendPacket(packet);
+        TcpConnection.request(packet, TcpConnection.DEFAULT_TIMEOUT_MS).whenComplete((resp, error) -> {
+            if (error != null) Log.w("TCP", "EXIT_CHAT fara raspuns: " + error.getMessage());
+        });
     }
 
     public void handleBackPress() {
@@ -334,7 +371,8 @@ public class ConversationActivity extends AppCompatActivity {
 
     public void modifyMessage(Message message) {
         EditText input = new EditText(this);
-        String currentContent = new String(message.getContent());
+        String currentContent = decryptor.textFor(message);
+        if (currentContent == null) currentContent = "";
         input.setTextColor(Color.WHITE);
         input.setText(currentContent);
         input.setSelection(currentContent.length());
@@ -0,0 +1,57 @@
+package com.example.tcpclient;
+
+import android.util.Log;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Security;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import chat.CryptoHelper;
+
+/**
+ * Inregistreaza provider-ul BouncyCastle complet (cel din Android e redus) si
+ * incarca clasele de criptare pe un thread de fundal, pornit din ChatApplication,
+ * ca primul ecran sa nu astepte dupa ele. Conectarea asteapta doar daca nu s-a terminat.
+ */
+final class CryptoInit {
+    private static final CountDownLatch ready = new CountDownLatch(1);
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+
+    private CryptoInit() {
+    }
+
+    static void start() {
+        if (!started.compareAndSet(false, true)) return;
+
+        Thread t = new Thread(CryptoInit::run, "crypto-init");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static void awaitReady() throws InterruptedException {
+        // Fara ChatApplication (ex. proces pornit altfel) pornim aici
+        start();
+        ready.await();
+    }
+
+    private static void run() {
+        long t = System.nanoTime();
+        try {
+            Security.removeProvider("BC");
+            Security.addProvider(new BouncyCastleProvider());
+
+            // Incarca CryptoHelper (provider + SecureRandom), apoi pregateste handshake-ul
+            CryptoHelper.secureRandom.nextBytes(new byte[16]);
+            Log.d("TCP", "Crypto gata in " + ((System.nanoTime() - t) / 1_000_000) + "ms");
+        } catch (Throwable e) {
+            Log.e("TCP", "Eroare initializare crypto: " + e.getMessage());
+        } finally {
+            ready.countDown();
+        }
+
+        // AeadBenchmark nu porneste aici: ar concura pe CPU cu primul ecran. Il porneste establish()
+        EphemeralKeyPool.prefill();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.tcpclient;
+
+import android.util.Log;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import chat.CryptoHelper;
+
+/**
+ * Cateva perechi EC (X25519) generate din timp pe un thread de fundal, ca
+ * handshake-ul sa nu mai astepte dupa generateECKeys. Fiecare pereche e
+ * scoasa din coada si folosita o singura data.
+ */
+final class EphemeralKeyPool {
+    private static final int POOL_SIZE = 2;
+
+    private static final BlockingQueue<KeyPair> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final AtomicBoolean refilling = new AtomicBoolean(false);
+    private static final ExecutorService keygen = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ec-keygen");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private EphemeralKeyPool() {
+    }
+
+    // Porneste generarea, daca nu e deja plina coada
+    static void prefill() {
+        if (pool.remainingCapacity() == 0 || !refilling.compareAndSet(false, true)) return;
+
+        keygen.execute(() -> {
+            try {
+                while (pool.remainingCapacity() > 0) {
+                    pool.offer(CryptoHelper.generateECKeys());
+                }
+            } catch (Exception e) {
+                Log.e("TCP", "Eroare generare chei EC: " + e.getMessage());
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    static KeyPair take() throws Exception {
+        KeyPair pair = pool.poll();
+        if (pair == null) {
+            // Coada goala (ex. reconectari rapide): generam pe loc
+            pair = CryptoHelper.generateECKeys();
+        }
+        prefill();
+        return pair;
+    }
+}
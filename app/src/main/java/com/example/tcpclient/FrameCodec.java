@@ -0,0 +1,96 @@
+package com.example.tcpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing binar pentru tunel, activ doar daca serverul a acceptat "bin" in handshake.
+ * Un frame e: [int lungime][byte tip][corp], lungimea include byte-ul de tip.
+ * PLAIN duce JSON-ul pachetului in clar (pachetele deja criptate end-to-end),
+ * SEALED duce iv + ciphertext exact cum iese din CryptoHelper.encryptAndPack, fara Base64.
+ * TICKET e tot sigilat, dar contine un tichet de reluare (vezi SessionTicket), nu un pachet.
+ * PING/PONG sunt sigilate si duc doar numarul ping-ului (vezi Heartbeat).
+ * BATCH e un singur record sigilat cu un array JSON de pachete, livrate in ordine.
+ * KEY_UPDATE e sigilat cu cheia veche; frame-urile de dupa el folosesc cheia urmatoare (vezi TunnelRatchet).
+ * Bitul de sus al tipului (FLAG_COMPRESSED) spune ca textul sigilat e comprimat (vezi TunnelCompression).
+ */
+final class FrameCodec {
+    static final byte KIND_PLAIN = 0;
+    static final byte KIND_SEALED = 1;
+    static final byte KIND_TICKET = 2;
+    static final byte KIND_PING = 3;
+    static final byte KIND_PONG = 4;
+    static final byte KIND_BATCH = 5;
+    static final byte KIND_KEY_UPDATE = 6;
+
+    static final byte FLAG_COMPRESSED = (byte) 0x80;
+
+    static final int HEADER_SIZE = 5;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    static final class Frame {
+        final byte kind;
+        final boolean compressed;
+        final byte[] body;
+
+        Frame(byte kind, byte[] body) {
+            this.kind = (byte) (kind & ~FLAG_COMPRESSED);
+            this.compressed = (kind & FLAG_COMPRESSED) != 0;
+            this.body = body;
+        }
+    }
+
+    private FrameCodec() {
+    }
+
+    static byte[] encode(byte kind, byte[] body) {
+        int length = body.length + 1;
+        byte[] frame = new byte[HEADER_SIZE + body.length];
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        frame[4] = kind;
+        System.arraycopy(body, 0, frame, HEADER_SIZE, body.length);
+        return frame;
+    }
+
+    static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame invalid, lungime " + length);
+        }
+
+        byte kind = in.readByte();
+        byte[] body = new byte[length - 1];
+        in.readFully(body);
+        return new Frame(kind, body);
+    }
+
+    // Citeste o linie JSON direct din stream, fara buffer propriu, ca dupa
+    // handshake sa putem trece pe frame-uri fara sa pierdem octeti.
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+
+        int size = line.size();
+        byte[] bytes = line.toByteArray();
+        if (size > 0 && bytes[size - 1] == '\r') size--;
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.tcpclient;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ping/pong criptat pe tunel (frame-uri PING/PONG), unul per conexiune.
+ * Din raspunsuri calculeaza RTT-ul netezit si variatia lui (ca la TCP, RFC 6298).
+ * Daca MAX_MISSED ping-uri la rand raman fara pong, legatura e considerata moarta,
+ * deci un socket pe jumatate deschis e detectat in cel mult
+ * interval + MAX_MISSED * timeout.
+ * Intervalul e mai scurt cat timp e deschisa o conversatie.
+ * Fara "hb" (sau fara framing binar) nu exista PING; atunci TcpConnection foloseste
+ * un timeout de citire de 2 intervale si o cerere de proba (vezi onSilence).
+ */
+final class Heartbeat {
+    static volatile long activeIntervalMs = 15_000;
+    static volatile long idleIntervalMs = 60_000;
+
+    private static final int MAX_MISSED = 2;
+    private static final long INITIAL_TIMEOUT_MS = 5_000;
+    private static final long MIN_TIMEOUT_MS = 1_000;
+    private static final long MAX_TIMEOUT_MS = 10_000;
+
+    interface Sender {
+        void sendPing(String body);
+    }
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tcp-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Sender sender;
+    private final Runnable onDead;
+
+    // Toate sub lock
+    private final Object lock = new Object();
+    private boolean running = false;
+    private boolean active;
+    private ScheduledFuture<?> nextTick;
+    private long seq = 0;
+    private long outstandingSeq = -1;
+    private long sentAt;
+    private int missed = 0;
+
+    private volatile double srttMs = -1;
+    private volatile double rttvarMs = 0;
+
+    Heartbeat(Sender sender, Runnable onDead) {
+        this.sender = sender;
+        this.onDead = onDead;
+    }
+
+    static void setIntervals(long activeMs, long idleMs) {
+        activeIntervalMs = activeMs;
+        idleIntervalMs = idleMs;
+    }
+
+    void start(boolean isActive) {
+        synchronized (lock) {
+            running = true;
+            active = isActive;
+            scheduleTick();
+        }
+    }
+
+    void stop() {
+        synchronized (lock) {
+            running = false;
+            if (nextTick != null) nextTick.cancel(false);
+        }
+    }
+
+    void setActive(boolean isActive) {
+        synchronized (lock) {
+            if (!running || active == isActive) return;
+            active = isActive;
+            // Reprogramam cu noul interval; la intrarea intr-un chat verificam imediat legatura
+            if (nextTick != null) nextTick.cancel(false);
+            if (isActive) {
+                nextTick = scheduler.schedule(this::tick, 0, TimeUnit.MILLISECONDS);
+            } else {
+                scheduleTick();
+            }
+        }
+    }
+
+    void onPong(String body) {
+        long now = System.nanoTime();
+        long pongSeq;
+        try {
+            pongSeq = Long.parseLong(body.trim());
+        } catch (NumberFormatException e) {
+            Log.w("TCP", "Pong invalid ignorat.");
+            return;
+        }
+
+        long sampleNanos;
+        synchronized (lock) {
+            if (pongSeq != outstandingSeq) return;
+            outstandingSeq = -1;
+            missed = 0;
+            sampleNanos = now - sentAt;
+        }
+
+        double sample = sampleNanos / 1_000_000.0;
+        if (srttMs < 0) {
+            srttMs = sample;
+            rttvarMs = sample / 2;
+        } else {
+            rttvarMs = 0.75 * rttvarMs + 0.25 * Math.abs(srttMs - sample);
+            srttMs = 0.875 * srttMs + 0.125 * sample;
+        }
+        ConnectionMetrics.record(ConnectionMetrics.Timer.HEARTBEAT_RTT, sampleNanos);
+    }
+
+    // -1 pana la primul pong
+    long getSmoothedRttMs() {
+        return Math.round(srttMs);
+    }
+
+    long getJitterMs() {
+        return srttMs < 0 ? -1 : Math.round(rttvarMs);
+    }
+
+    private long timeoutMs() {
+        if (srttMs < 0) return INITIAL_TIMEOUT_MS;
+        long rto = Math.round(srttMs + 4 * rttvarMs);
+        return Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, rto));
+    }
+
+    // Apelate cu lock
+    private void scheduleTick() {
+        long interval = active ? activeIntervalMs : idleIntervalMs;
+        nextTick = scheduler.schedule(this::tick, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPing() {
+        long pingSeq = ++seq;
+        outstandingSeq = pingSeq;
+        sentAt = System.nanoTime();
+        sender.sendPing(Long.toString(pingSeq));
+        scheduler.schedule(() -> checkTimeout(pingSeq), timeoutMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        synchronized (lock) {
+            if (!running) return;
+            if (outstandingSeq == -1) sendPing();
+            scheduleTick();
+        }
+    }
+
+    private void checkTimeout(long pingSeq) {
+        synchronized (lock) {
+            if (!running || outstandingSeq != pingSeq) return;
+            outstandingSeq = -1;
+            missed++;
+
+            if (missed < MAX_MISSED) {
+                // Mai incercam o data imediat, fara sa asteptam urmatorul interval
+                sendPing();
+                return;
+            }
+            running = false;
+            if (nextTick != null) nextTick.cancel(false);
+        }
+
+        Log.e("TCP", "Heartbeat: " + MAX_MISSED + " ping-uri fara raspuns, legatura moarta.");
+        onDead.run();
+    }
+}
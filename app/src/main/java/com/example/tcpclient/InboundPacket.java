@@ -0,0 +1,56 @@
+package com.example.tcpclient;
+
+import chat.PacketType;
+
+/**
+ * Pachet primit de la server, cu payload-ul deja convertit in tipul lui
+ * (vezi PacketCodec). Inlocuieste NetworkPacket pe partea de citire ca sa nu
+ * mai tinem arborele JsonElement in memorie.
+ */
+public class InboundPacket {
+    private final PacketType type;
+    private final int senderId;
+    private final Object payload;
+    private final int requestId;
+    private final String clientId;
+
+    InboundPacket(PacketType type, int senderId, Object payload, int requestId) {
+        this(type, senderId, payload, requestId, null);
+    }
+
+    InboundPacket(PacketType type, int senderId, Object payload, int requestId, String clientId) {
+        this.type = type;
+        this.senderId = senderId;
+        this.payload = payload;
+        this.requestId = requestId;
+        this.clientId = clientId;
+    }
+
+    public PacketType getType() {
+        return type;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    // 0 pentru broadcast-uri si pentru serverele care nu intorc id-ul cererii
+    public int getRequestId() {
+        return requestId;
+    }
+
+    // clientId-ul unui pachet din Outbox, intors de serverele care confirma primirea lui
+    public String getClientId() {
+        return clientId;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getPayload() {
+        return (T) payload;
+    }
+
+    @Override
+    public String toString() {
+        return type + " de la " + senderId;
+    }
+}
@@ -39,6 +39,7 @@ public class LoginActivity extends AppCompatActivity {
         });
 
         config = new ConfigReader(this);
+        Outbox.init(this);
 
         try {
             preferences = SecureStorage.getEncryptedPrefs(getApplicationContext());
@@ -73,13 +74,10 @@ public class LoginActivity extends AppCompatActivity {
             try {
                 TcpConnection.close();
 
-                TcpConnection.connect(config.getServerIp(), config.getServerPort());
-
                 ChatDtos.AuthDto loginData = new ChatDtos.AuthDto(username, password);
                 NetworkPacket requestPacket = new NetworkPacket(PacketType.LOGIN_REQUEST, 0, loginData);
-                TcpConnection.sendPacket(requestPacket);
-
-                NetworkPacket responsePacket = TcpConnection.readNextPacket();
+                InboundPacket responsePacket = TcpConnection.connectAndRequest(config.getServerIp(),
+                        config.getServerPort(), requestPacket, TcpConnection.DEFAULT_TIMEOUT_MS).get();
 
                 runOnUiThread(() -> {
                     setButtonsEnabled(true);
@@ -103,7 +101,7 @@ public class LoginActivity extends AppCompatActivity {
         }).start();
     }
 
-    private void handleLoginResponse(NetworkPacket packet, String username, String password, boolean keepSignedIn) {
+    private void handleLoginResponse(InboundPacket packet, String username, String password, boolean keepSignedIn) {
         try {
             JsonElement payload = packet.getPayload();
 
@@ -113,6 +111,8 @@ public class LoginActivity extends AppCompatActivity {
                 if (user != null && user.getUsername() != null) {
                     TcpConnection.setCurrentUser(user);
                     TcpConnection.setCurrentUserId(user.getId());
+                    ConnectionSupervisor.start(config.getServerIp(), config.getServerPort(),
+                            new ChatDtos.AuthDto(username, password));
 
                     SharedPreferences.Editor editor = preferences.edit();
                     if (keepSignedIn) {
@@ -150,21 +150,21 @@ public class LoginActivity extends AppCompatActivity {
         new Thread(() -> {
             try {
                 TcpConnection.close();
-                TcpConnection.connect(config.getServerIp(), config.getServerPort());
 
                 ChatDtos.AuthDto loginData = new ChatDtos.AuthDto(savedUser, savedPass);
                 NetworkPacket request = new NetworkPacket(PacketType.LOGIN_REQUEST, 0, loginData);
-                TcpConnection.sendPacket(request);
-
-                NetworkPacket response = TcpConnection.readNextPacket();
+                InboundPacket response = TcpConnection.connectAndRequest(config.getServerIp(),
+                        config.getServerPort(), request, TcpConnection.DEFAULT_TIMEOUT_MS).get();
 
                 runOnUiThread(() -> {
                     if (response != null && response.getType() == PacketType.LOGIN_RESPONSE) {
                         try {
-                            if (response.getPayload().isJsonObject()) {
-                                User user = gson.fromJson(response.getPayload(), User.class);
+                            JsonElement payload = response.getPayload();
+                            if (payload.isJsonObject()) {
+                                User user = gson.fromJson(payload, User.class);
                                 TcpConnection.setCurrentUser(user);
                                 TcpConnection.setCurrentUserId(user.getId());
+                                ConnectionSupervisor.start(config.getServerIp(), config.getServerPort(), loginData);
 
                                 Intent intent = new Intent(LoginActivity.this, MainActivity.class);
                                 startActivity(intent);
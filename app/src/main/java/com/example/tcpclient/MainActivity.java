@@ -25,10 +25,6 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.lang.reflect.Type;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,18 +33,18 @@ import chat.ChatDtos;
 import chat.GroupChat;
 import chat.NetworkPacket;
 import chat.PacketType;
-import chat.User;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements ConnectionSupervisor.Listener {
     RecyclerView recyclerView;
     ConversationAdapter adapter;
-    private final Gson gson = new Gson();
 
     AlertDialog dialog;
 
     private Spinner pendingSpinner;
     private List<String> pendingRawUsers;
 
+    private final List<PacketDispatcher.Subscription> subscriptions = new ArrayList<>();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -83,64 +79,91 @@ public class MainActivity extends AppCompatActivity {
             getOnBackInvokedDispatcher().registerOnBackInvokedCallback(OnBackInvokedDispatcher.PRIORITY_DEFAULT, callback);
         }
 
+        Outbox.init(this);
+        MessageCache.init(this);
+        ChatListCache.init(this);
         TcpConnection.startReading();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        ConnectionSupervisor.addListener(this);
 
         Socket socket = TcpConnection.socket;
         if (socket == null || socket.isClosed() || !socket.isConnected()) {
             attemptAutoReconnect();
         } else {
-            TcpConnection.setPacketListener(this::handlePacketOnUI);
+            subscribePackets();
             refreshConversations();
         }
     }
 
-    private void handlePacketOnUI(NetworkPacket packet) {
+    @Override
+    protected void onPause() {
+        super.onPause();
+        ConnectionSupervisor.removeListener(this);
+        PacketDispatcher.cancelAll(subscriptions);
+    }
+
+    private void subscribePackets() {
+        PacketDispatcher.cancelAll(subscriptions);
+
+        PacketType[] uiTypes = {
+                PacketType.GET_CHATS_RESPONSE,
+                PacketType.GET_USERS_RESPONSE,
+                PacketType.CREATE_CHAT_BROADCAST,
+                PacketType.RENAME_CHAT_BROADCAST,
+                PacketType.DELETE_CHAT_BROADCAST
+        };
+        for (PacketType type : uiTypes) {
+            subscriptions.add(PacketDispatcher.subscribe(type, this::handlePacket));
+        }
+
+        subscriptions.add(PacketDispatcher.subscribe(PacketType.EXCHANGE_SESSION_KEY, this::saveSessionKey,
+                keyDto -> Log.d("MAIN_KEY", "[SYNC] Cheie primita si salvata pentru ChatID: " + keyDto.chatId)));
+    }
+
+    private ChatDtos.SessionKeyDto saveSessionKey(InboundPacket packet) {
+        ChatDtos.SessionKeyDto keyDto = packet.getPayload();
+        ClientKeyManager keyMgr = new ClientKeyManager(this);
+
+        keyMgr.saveKey(keyDto.chatId, keyDto.aesKeyBase64);
+        return keyDto;
+    }
+
+    private void handlePacketOnUI(InboundPacket packet) {
         runOnUiThread(() -> handlePacket(packet));
     }
 
-    private void handlePacket(NetworkPacket packet) {
+    private void handlePacket(InboundPacket packet) {
         switch (packet.getType()) {
             case GET_CHATS_RESPONSE:
                 try {
-                    Type listType = new TypeToken<List<GroupChat>>(){}.getType();
-                    List<GroupChat> groupChats = gson.fromJson(packet.getPayload(), listType);
+                    Object payload = packet.getPayload();
+                    if (payload instanceof ClientDtos.ChatListDeltaDto) {
+                        applyChatListDelta((ClientDtos.ChatListDeltaDto) payload);
+                        break;
+                    }
+
+                    List<GroupChat> groupChats = packet.getPayload();
 
                     if (groupChats == null) groupChats = new ArrayList<>();
 
-                    LocalStorage.setCurrentUserGroupChats(groupChats);
-                    adapter.setGroupChats(groupChats);
-                    adapter.notifyDataSetChanged();
+                    ChatListCache.replaceAll(groupChats, 0);
+                    showChats(groupChats);
                 } catch (Exception e) { e.printStackTrace(); }
                 break;
 
             case GET_USERS_RESPONSE:
                 try {
-                    Type userListType = new TypeToken<List<String>>(){}.getType();
-                    List<String> serverList = gson.fromJson(packet.getPayload(), userListType);
+                    List<String> serverList = packet.getPayload();
                     updateSpinnerData(serverList);
                 } catch (Exception e) { e.printStackTrace(); }
                 break;
 
-            case EXCHANGE_SESSION_KEY:
-                try {
-                    ChatDtos.SessionKeyDto keyDto = gson.fromJson(packet.getPayload(), ChatDtos.SessionKeyDto.class);
-                    ClientKeyManager keyMgr = new ClientKeyManager(this);
-
-                    keyMgr.saveKey(keyDto.chatId, keyDto.aesKeyBase64);
-
-                    Log.d("MAIN_KEY", "[SYNC] Cheie primita si salvata pentru ChatID: " + keyDto.chatId);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                break;
-
             case CREATE_CHAT_BROADCAST:
-                GroupChat newChat = gson.fromJson(packet.getPayload(), GroupChat.class);
+                GroupChat newChat = packet.getPayload();
 
                 if (adapter != null) adapter.setEnabled(true);
                 if (dialog != null && dialog.isShowing()) dialog.dismiss();
@@ -152,45 +175,110 @@ public class MainActivity extends AppCompatActivity {
                     break;
                 }
 
-                LocalStorage.getCurrentUserGroupChats().add(0, newChat);
-                adapter.setGroupChats(LocalStorage.getCurrentUserGroupChats());
-
-                adapter.notifyDataSetChanged();
+                // Poate fi deja in lista, venit intre timp cu diferenta de la server
+                ChatListCache.put(newChat);
+                upsertChat(newChat);
                 recyclerView.scrollToPosition(0);
 
                 break;
 
             case RENAME_CHAT_BROADCAST:
-                ChatDtos.RenameGroupDto renameDto = gson.fromJson(packet.getPayload(), ChatDtos.RenameGroupDto.class);
+                ChatDtos.RenameGroupDto renameDto = packet.getPayload();
 
-                List<GroupChat> currentList = LocalStorage.getCurrentUserGroupChats();
-                for (int i = 0; i < currentList.size(); i++) {
-                    if (currentList.get(i).getId() == renameDto.chatId) {
-                        currentList.get(i).setName(renameDto.newName);
-                        adapter.notifyItemChanged(i);
-                        break;
-                    }
+                ChatListCache.rename(renameDto.chatId, renameDto.newName);
+                int renamed = indexOfChat(renameDto.chatId);
+                if (renamed >= 0) {
+                    LocalStorage.getCurrentUserGroupChats().get(renamed).setName(renameDto.newName);
+                    adapter.notifyItemChanged(renamed);
                 }
                 break;
 
             case DELETE_CHAT_BROADCAST:
-                int deletedId = gson.fromJson(packet.getPayload(), Integer.class);
+                int deletedId = packet.<Integer>getPayload();
 
-                List<GroupChat> deleteList = LocalStorage.getCurrentUserGroupChats();
-                for (int i = 0; i < deleteList.size(); i++) {
-                    if (deleteList.get(i).getId() == deletedId) {
-                        deleteList.remove(i);
-                        adapter.notifyItemRemoved(i);
-                        break;
-                    }
-                }
+                ChatListCache.delete(deletedId);
+                removeChat(deletedId);
                 break;
         }
     }
 
+    private void showChats(List<GroupChat> groupChats) {
+        LocalStorage.setCurrentUserGroupChats(groupChats);
+        adapter.setGroupChats(groupChats);
+        adapter.notifyDataSetChanged();
+    }
+
+    // Doar ce s-a schimbat de la versiunea trimisa; aplicat si pe lista salvata
+    private void applyChatListDelta(ClientDtos.ChatListDeltaDto delta) {
+        if (delta.upserted == null) delta.upserted = new ArrayList<>();
+        if (delta.deleted == null) delta.deleted = new ArrayList<>();
+
+        if (delta.full) {
+            ChatListCache.replaceAll(delta.upserted, delta.version);
+            showChats(new ArrayList<>(delta.upserted));
+            return;
+        }
+
+        ChatListCache.apply(delta);
+        for (Integer id : delta.deleted) removeChat(id);
+        for (GroupChat chat : delta.upserted) upsertChat(chat);
+    }
+
+    private int indexOfChat(int chatId) {
+        List<GroupChat> chats = LocalStorage.getCurrentUserGroupChats();
+        for (int i = 0; i < chats.size(); i++) {
+            if (chats.get(i).getId() == chatId) return i;
+        }
+        return -1;
+    }
+
+    // Chat nou sus; daca exista deja, doar numele
+    private void upsertChat(GroupChat chat) {
+        int index = indexOfChat(chat.getId());
+        if (index >= 0) {
+            LocalStorage.getCurrentUserGroupChats().get(index).setName(chat.getName());
+            adapter.notifyItemChanged(index);
+            return;
+        }
+        LocalStorage.getCurrentUserGroupChats().add(0, chat);
+        adapter.notifyItemInserted(0);
+    }
+
+    private void removeChat(int chatId) {
+        int index = indexOfChat(chatId);
+        if (index < 0) return;
+
+        LocalStorage.getCurrentUserGroupChats().remove(index);
+        adapter.notifyItemRemoved(index);
+    }
+
+    // Lista salvata apare imediat; cu "chatsync" serverul trimite doar ce s-a schimbat de la versiunea ei
     private void refreshConversations() {
-        NetworkPacket req = new NetworkPacket(PacketType.GET_CHATS_REQUEST, TcpConnection.getCurrentUserId());
-        TcpConnection.sendPacket(req);
+        ChatListCache.load().whenComplete((snapshot, error) -> runOnUiThread(() -> {
+            long version = 0;
+            if (error == null) {
+                if (LocalStorage.getCurrentUserGroupChats().isEmpty() && !snapshot.chats.isEmpty()) {
+                    showChats(snapshot.chats);
+                }
+                version = snapshot.version;
+            }
+
+            int userId = TcpConnection.getCurrentUserId();
+            NetworkPacket req = TcpConnection.hasFeature(ProtocolFeatures.CHAT_LIST_SYNC)
+                    ? PacketCodec.newPacket(PacketType.GET_CHATS_REQUEST, userId, new ClientDtos.ChatListSyncDto(version))
+                    : new NetworkPacket(PacketType.GET_CHATS_REQUEST, userId);
+            requestOnUI(req);
+        }));
+    }
+
+    private void requestOnUI(NetworkPacket req) {
+        TcpConnection.request(req, TcpConnection.DEFAULT_TIMEOUT_MS).whenComplete((resp, error) -> {
+            if (error != null) {
+                Log.e("TCP", "Cerere esuata " + req.getType() + ": " + error.getMessage());
+                return;
+            }
+            handlePacketOnUI(resp);
+        });
     }
 
     private void performRename(GroupChat chat, String newName) {
@@ -217,9 +305,13 @@ public class MainActivity extends AppCompatActivity {
         new android.os.Handler().postDelayed(() -> {
             TcpConnection.stopReading();
             TcpConnection.close();
+            TcpConnection.forgetSession();
+            MessageCache.clear();
+            ChatListCache.clear();
             runOnUiThread(() -> {
                 SharedPreferences prefs = SecureStorage.getEncryptedPrefs(MainActivity.this);
                 prefs.edit().clear().apply();
+                LocalStorage.setCurrentUserGroupChats(new ArrayList<>());
                 goToLogin();
             });
         }, 300);
@@ -229,7 +321,7 @@ public class MainActivity extends AppCompatActivity {
         this.pendingSpinner = spinner;
         this.pendingRawUsers = rawUserStrings;
         NetworkPacket req = new NetworkPacket(PacketType.GET_USERS_REQUEST, TcpConnection.getCurrentUserId());
-        TcpConnection.sendPacket(req);
+        requestOnUI(req);
     }
 
     private void updateSpinnerData(List<String> serverList) {
@@ -370,41 +462,30 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void attemptAutoReconnect() {
-        SharedPreferences preferences = SecureStorage.getEncryptedPrefs(getApplicationContext());
-        String savedUser = preferences.getString("username", null);
-        String savedPassword = preferences.getString("password", null);
-        if (savedUser == null || savedPassword == null) { goToLogin(); return; }
-
-        new Thread(() -> {
-            try {
-                ConfigReader configReader = new ConfigReader(this);
-                TcpConnection.connect(configReader.getServerIp(), configReader.getServerPort());
-
-                ChatDtos.AuthDto authDto = new ChatDtos.AuthDto(savedUser, savedPassword);
-                NetworkPacket req = new NetworkPacket(PacketType.LOGIN_REQUEST, 0, authDto);
-                TcpConnection.sendPacket(req);
-
-                NetworkPacket resp = TcpConnection.readNextPacket();
-
-                if (resp.getType() == PacketType.LOGIN_RESPONSE) {
-                    User user = gson.fromJson(resp.getPayload(), User.class);
-                    if (user != null) {
-                        TcpConnection.setCurrentUser(user);
-                        TcpConnection.setCurrentUserId(user.getId());
-                        runOnUiThread(() -> {
-                            Toast.makeText(this, "Reconectat automat!", Toast.LENGTH_SHORT).show();
-
-                            TcpConnection.startReading();
-                            TcpConnection.setPacketListener(this::handlePacketOnUI);
-                            refreshConversations();
-                        });
-                    } else runOnUiThread(this::goToLogin);
-                } else runOnUiThread(this::goToLogin);
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                runOnUiThread(this::goToLogin);
-            }
-        }).start();
+        if (!ConnectionSupervisor.isActive()) {
+            SharedPreferences preferences = SecureStorage.getEncryptedPrefs(getApplicationContext());
+            String savedUser = preferences.getString("username", null);
+            String savedPassword = preferences.getString("password", null);
+            if (savedUser == null || savedPassword == null) { goToLogin(); return; }
+
+            ConfigReader configReader = new ConfigReader(this);
+            ConnectionSupervisor.start(configReader.getServerIp(), configReader.getServerPort(),
+                    new ChatDtos.AuthDto(savedUser, savedPassword));
+        }
+
+        // Reconectarea (cu backoff) e treaba supervisorului; aici doar asteptam rezultatul
+        subscribePackets();
+        ConnectionSupervisor.reconnectNow();
+    }
+
+    @Override
+    public void onReconnected() {
+        Toast.makeText(this, "Reconectat automat!", Toast.LENGTH_SHORT).show();
+        refreshConversations();
+    }
+
+    @Override
+    public void onSessionRejected() {
+        goToLogin();
     }
 }
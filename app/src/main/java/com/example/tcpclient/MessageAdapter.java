@@ -22,6 +22,7 @@ import chat.Message;
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
     private final List<Message> messages;
     private final int currentUserId;
+    private final MessageDecryptor decryptor;
     private final Context context;
 
     private static final int VIEW_TYPE_MINE = 1;
@@ -33,11 +34,12 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         void onMessageLongClick(Message message);
     }
 
-    public MessageAdapter(Context context, List<Message> messages, int currentUserId,
-                          OnMessageLongClickListener longClickListener) {
+    MessageAdapter(Context context, List<Message> messages, int currentUserId, MessageDecryptor decryptor,
+                   OnMessageLongClickListener longClickListener) {
         this.context = context;
         this.messages = messages;
         this.currentUserId = currentUserId;
+        this.decryptor = decryptor;
         this.longClickListener = longClickListener;
     }
 
@@ -62,7 +64,9 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
         Message message = messages.get(position);
-        holder.messageText.setText(new String(message.getContent()));
+        // Textul vine din cache; daca nu e inca decriptat, randul se reface la onDecrypted
+        String text = decryptor.textFor(message);
+        holder.messageText.setText(text != null ? text : "…");
 
         SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
         String time = sdf.format(new Date(message.getTimestamp()));
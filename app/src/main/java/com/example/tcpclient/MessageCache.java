@@ -0,0 +1,212 @@
+package com.example.tcpclient;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import chat.Message;
+
+/**
+ * Cache-ul local de mesaje, in baza criptata (vezi ChatDatabase). La deschiderea
+ * unui chat se afiseaza intai ce e aici, apoi se cere de la server doar diferenta
+ * (mesaje cu id > SyncState.lastId si editari/stergeri de dupa SyncState.cursor).
+ * Continutul ramane ciphertext-ul cu cheia chat-ului, ca in Message.
+ * Tot accesul la baza se face pe un singur thread de fundal; fara baza
+ * (nu s-a putut deschide) citirile intorc liste goale si scrierile se ignora.
+ */
+final class MessageCache {
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-cache-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile ChatDatabase db;
+
+    private MessageCache() {
+    }
+
+    static void init(Context context) {
+        if (db != null) return;
+        Context app = context.getApplicationContext();
+        io.execute(() -> {
+            if (db != null) return;
+            try {
+                db = ChatDatabase.get(app);
+            } catch (Exception e) {
+                Log.e("CACHE", "Nu pot deschide baza locala: " + e.getMessage());
+            }
+        });
+    }
+
+    static String scope(int chatId) {
+        return "chat:" + chatId;
+    }
+
+    // Ultimele `limit` mesaje, crescator dupa id
+    static CompletableFuture<List<Message>> newest(int chatId, int limit) {
+        return CompletableFuture.supplyAsync(() ->
+                db == null ? new ArrayList<>() : ascending(db.messageDao().newest(chatId, limit)), io);
+    }
+
+    static CompletableFuture<List<Message>> before(int chatId, int beforeId, int limit) {
+        return CompletableFuture.supplyAsync(() ->
+                db == null ? new ArrayList<>() : ascending(db.messageDao().before(chatId, beforeId, limit)), io);
+    }
+
+    static CompletableFuture<SyncState> syncState(int chatId) {
+        return CompletableFuture.supplyAsync(() -> db == null ? null : db.syncStateDao().get(scope(chatId)), io);
+    }
+
+    // Mesaj live; cursorul avanseaza doar daca chat-ul e deja sincronizat in sesiunea asta,
+    // altfel un mesaj nou ar ascunde golul dinaintea lui
+    static void store(Message message, boolean advanceCursor) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                db.messageDao().insertAll(Collections.singletonList(CachedMessage.from(message)));
+                if (advanceCursor) advanceLastId(message.getGroupId(), message.getId(), -1);
+            });
+        });
+    }
+
+    // Pagina mai veche venita de la server; reachedStart daca a fost ultima
+    static void storeOlder(int chatId, List<Message> page, boolean reachedStart) {
+        if (page.isEmpty() && !reachedStart) return;
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                if (!page.isEmpty()) db.messageDao().insertAll(toEntities(page));
+                if (reachedStart) markReachedStart(chatId);
+            });
+        });
+    }
+
+    // Cea mai noua pagina ("page" fara "sync"): ce avem local in intervalul ei si
+    // lipseste din ea a fost sters pe server
+    static void storeNewest(int chatId, List<Message> page) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                if (page.isEmpty()) {
+                    db.messageDao().clearChat(chatId);
+                    db.syncStateDao().delete(scope(chatId));
+                    return;
+                }
+                dropMissing(chatId, page);
+                db.messageDao().insertAll(toEntities(page));
+                advanceLastId(chatId, page.get(page.size() - 1).getId(), -1);
+                if (page.size() < MessagePager.PAGE_SIZE) markReachedStart(chatId);
+            });
+        });
+    }
+
+    // Tot istoricul (servere fara "page"), sau cea mai noua pagina dupa un gol prea mare:
+    // inlocuieste tot ce era local. reachedStart daca lista incepe cu primul mesaj al chat-ului
+    static void replaceChat(int chatId, List<Message> messages, long cursor, boolean reachedStart) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                db.messageDao().clearChat(chatId);
+                db.syncStateDao().delete(scope(chatId));
+                if (messages.isEmpty()) return;
+                db.messageDao().insertAll(toEntities(messages));
+                advanceLastId(chatId, messages.get(messages.size() - 1).getId(), cursor);
+                if (reachedStart) markReachedStart(chatId);
+            });
+        });
+    }
+
+    static void applySync(int chatId, ClientDtos.HistorySyncResultDto result) {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                int newest = 0;
+                if (result.messages != null && !result.messages.isEmpty()) {
+                    for (Message m : result.messages) newest = Math.max(newest, m.getId());
+                    db.messageDao().insertAll(toEntities(result.messages));
+                }
+                // Doar mesajele pe care le avem: o editare a unui mesaj vechi, inca necerut,
+                // ar lasa un rand izolat in mijlocul unui gol si paginarea din cache l-ar sari
+                if (result.edited != null) {
+                    for (Message m : result.edited) db.messageDao().updateContent(m.getId(), m.getContent());
+                }
+                if (result.deleted != null && !result.deleted.isEmpty()) db.messageDao().delete(result.deleted);
+                advanceLastId(chatId, newest, result.syncedAt);
+            });
+        });
+    }
+
+    static void updateContent(int messageId, byte[] content) {
+        io.execute(() -> {
+            if (db != null) db.messageDao().updateContent(messageId, content);
+        });
+    }
+
+    static void delete(int messageId) {
+        io.execute(() -> {
+            if (db != null) db.messageDao().delete(Collections.singletonList(messageId));
+        });
+    }
+
+    // La logout: alt cont nu are ce cauta in mesajele celui vechi
+    static void clear() {
+        io.execute(() -> {
+            if (db == null) return;
+            db.runInTransaction(() -> {
+                db.messageDao().clearAll();
+                db.syncStateDao().clearAll();
+            });
+        });
+    }
+
+    // cursor < 0 pastreaza cursorul existent
+    private static void advanceLastId(int chatId, int lastId, long cursor) {
+        SyncState state = db.syncStateDao().get(scope(chatId));
+        if (state == null) {
+            state = new SyncState();
+            state.scope = scope(chatId);
+        }
+        state.lastId = Math.max(state.lastId, lastId);
+        if (cursor >= 0) state.cursor = cursor;
+        db.syncStateDao().save(state);
+    }
+
+    private static void markReachedStart(int chatId) {
+        SyncState state = db.syncStateDao().get(scope(chatId));
+        if (state == null || state.reachedStart) return;
+        state.reachedStart = true;
+        db.syncStateDao().save(state);
+    }
+
+    private static void dropMissing(int chatId, List<Message> page) {
+        Set<Integer> present = new HashSet<>();
+        for (Message m : page) present.add(m.getId());
+
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : db.messageDao().idsFrom(chatId, page.get(0).getId())) {
+            if (!present.contains(id)) missing.add(id);
+        }
+        if (!missing.isEmpty()) db.messageDao().delete(missing);
+    }
+
+    private static List<CachedMessage> toEntities(List<Message> messages) {
+        List<CachedMessage> entities = new ArrayList<>(messages.size());
+        for (Message m : messages) entities.add(CachedMessage.from(m));
+        return entities;
+    }
+
+    private static List<Message> ascending(List<CachedMessage> descending) {
+        List<Message> result = new ArrayList<>(descending.size());
+        for (int i = descending.size() - 1; i >= 0; i--) result.add(descending.get(i).toMessage());
+        return result;
+    }
+}
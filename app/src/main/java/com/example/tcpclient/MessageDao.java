@@ -0,0 +1,36 @@
+package com.example.tcpclient;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface MessageDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<CachedMessage> messages);
+
+    // Descrescator; cine citeste le intoarce
+    @Query("SELECT * FROM messages WHERE groupId = :groupId ORDER BY id DESC LIMIT :limit")
+    List<CachedMessage> newest(int groupId, int limit);
+
+    @Query("SELECT * FROM messages WHERE groupId = :groupId AND id < :beforeId ORDER BY id DESC LIMIT :limit")
+    List<CachedMessage> before(int groupId, int beforeId, int limit);
+
+    @Query("SELECT id FROM messages WHERE groupId = :groupId AND id >= :fromId")
+    List<Integer> idsFrom(int groupId, int fromId);
+
+    @Query("UPDATE messages SET content = :content WHERE id = :id")
+    void updateContent(int id, byte[] content);
+
+    @Query("DELETE FROM messages WHERE id IN (:ids)")
+    void delete(List<Integer> ids);
+
+    @Query("DELETE FROM messages WHERE groupId = :groupId")
+    void clearChat(int groupId);
+
+    @Query("DELETE FROM messages")
+    void clearAll();
+}
@@ -0,0 +1,143 @@
+package com.example.tcpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chat.Message;
+
+/**
+ * Decriptarea mesajelor unui chat, in afara UI thread-ului. Message.getContent()
+ * ramane ciphertext-ul primit; textul clar sta intr-un LruCache pe id de mesaj,
+ * limitat la CACHE_CHARS, comun tuturor chat-urilor (id-urile sunt unice pe server).
+ * Fiecare intrare tine si hash-ul ciphertext-ului din care a iesit: un worker pornit
+ * inainte de o editare poate scrie textul vechi dupa ea, dar intrarea lui nu se mai
+ * potriveste cu continutul nou si e ignorata.
+ * Mesajele se decripteaza lazy, cand sunt afisate (textFor), pe un pool de
+ * thread-uri; ultimele mesaje dintr-o pagina pot fi decriptate in paralel
+ * inainte sa fie publicata (decryptAll), ca ecranul sa apara direct cu text.
+ */
+final class MessageDecryptor {
+    private static final int CACHE_CHARS = 1024 * 1024;
+
+    interface Listener {
+        // Pe UI thread, cand textul unui mesaj afisat a ajuns in cache
+        void onDecrypted(int messageId);
+    }
+
+    private static final class Entry {
+        final int contentHash;
+        final String text;
+
+        Entry(int contentHash, String text) {
+            this.contentHash = contentHash;
+            this.text = text;
+        }
+    }
+
+    private static final LruCache<Integer, Entry> plaintext = new LruCache<Integer, Entry>(CACHE_CHARS) {
+        @Override
+        protected int sizeOf(Integer key, Entry value) {
+            return value.text.length() + 20;
+        }
+    };
+
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, r -> {
+        Thread t = new Thread(r, "msg-decrypt-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int chatId;
+    private final ClientKeyManager keyManager;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Doar pe UI thread
+    private final Set<Integer> inFlight = new HashSet<>();
+
+    MessageDecryptor(int chatId, ClientKeyManager keyManager, Listener listener) {
+        this.chatId = chatId;
+        this.keyManager = keyManager;
+        this.listener = listener;
+    }
+
+    // UI thread: textul daca e deja decriptat, altfel null si decriptarea porneste in fundal
+    String textFor(Message message) {
+        int id = message.getId();
+        String text = cached(id, message.getContent());
+        if (text != null || !inFlight.add(id)) return text;
+
+        workers.execute(() -> {
+            String decrypted = decrypt(message);
+            mainHandler.post(() -> {
+                inFlight.remove(id);
+                if (decrypted != null) listener.onDecrypted(id);
+            });
+        });
+        return null;
+    }
+
+    // Orice thread: decripteaza acum (ex. mesaj nou primit) si pune in cache
+    String decrypt(Message message) {
+        return decrypt(message.getId(), message.getContent());
+    }
+
+    String decrypt(int messageId, byte[] ciphertext) {
+        if (ciphertext == null) return null;
+        String text = cached(messageId, ciphertext);
+        if (text != null) return text;
+
+        AeadContext key = keyManager.getContext(chatId);
+        if (key == null) return null;
+
+        try {
+            text = key.decrypt(ciphertext);
+        } catch (Exception e) {
+            Log.e("DECRYPT", "Fail " + e.getMessage());
+            return null;
+        }
+        plaintext.put(messageId, new Entry(Arrays.hashCode(ciphertext), text));
+        return text;
+    }
+
+    // Textul din cache doar daca a fost decriptat din acelasi ciphertext
+    private static String cached(int messageId, byte[] ciphertext) {
+        Entry entry = plaintext.get(messageId);
+        if (entry == null || ciphertext == null || entry.contentHash != Arrays.hashCode(ciphertext)) return null;
+        return entry.text;
+    }
+
+    // Mesajele sunt impartite pe worker-i; viitorul se termina cand toate sunt in cache
+    CompletableFuture<Void> decryptAll(List<Message> messages) {
+        if (messages.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        int chunk = (messages.size() + WORKERS - 1) / WORKERS;
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += chunk) {
+            List<Message> slice = messages.subList(from, Math.min(messages.size(), from + chunk));
+            parts.add(CompletableFuture.runAsync(() -> {
+                for (Message m : slice) decrypt(m);
+            }, workers));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]));
+    }
+
+    // Un mesaj editat are alt ciphertext; textul vechi nu mai e valabil
+    void invalidate(int messageId) {
+        plaintext.remove(messageId);
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.tcpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import chat.Message;
+import chat.NetworkPacket;
+import chat.PacketType;
+
+/**
+ * Istoricul unui chat pe pagini. La deschidere (open) se afiseaza intai ultimele
+ * mesaje din MessageCache, apoi se cere de la server doar diferenta: cu "sync",
+ * mesajele noi plus editarile/stergerile de la ultima sincronizare; cu "page",
+ * cea mai noua pagina; fara ele serverul trimite singur tot istoricul la ENTER_CHAT.
+ * Paginile mai vechi se cer cu cursor pe id (beforeId = cel mai vechi id avut),
+ * din cache cand e tinut la zi de "sync", altfel de la server, din timp, cand
+ * utilizatorul urca si ajunge la PREFETCH_DISTANCE mesaje de inceputul listei.
+ * Din prima pagina se decripteaza in paralel doar ultimele VISIBLE_TAIL mesaje
+ * (cele de pe ecran) inainte de publicare; restul se decripteaza lazy, la afisare
+ * (vezi MessageDecryptor). Starea si callback-urile sunt pe UI thread.
+ */
+final class MessagePager {
+    static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 20;
+    static final int VISIBLE_TAIL = 30;
+
+    interface Listener {
+        // Pagina e in ordine crescatoare; newest = prima pagina, inlocuieste tot.
+        // Dupa ce prima pagina e pe ecran se apeleaza onShown()
+        void onPage(List<Message> page, boolean newest);
+
+        // Diferenta fata de ce e afisat, deja scrisa in cache; vine dupa onShown()
+        void onSync(ClientDtos.HistorySyncResultDto delta);
+    }
+
+    private final int chatId;
+    private final MessageDecryptor decryptor;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Doar pe UI thread
+    private int oldestId = 0;
+    private boolean loading = false;
+    private boolean hasMore = true;
+    // Cache-ul are primul mesaj al chat-ului (SyncState.reachedStart), deci ce lipsa
+    // dintr-o pagina citita din cache nu mai trebuie cerut de la server
+    private boolean cacheReachesStart = false;
+    // Raspunsurile cerute inainte de un open()/loadNewest() sunt ignorate
+    private int generation = 0;
+    // O diferenta sosita inainte ca prima pagina sa fie afisata asteapta onShown()
+    private boolean shown = true;
+    private ClientDtos.HistorySyncResultDto pendingDelta;
+
+    // Citit si de thread-ul dispatcher-ului: mesajele live pot avansa cursorul cache-ului
+    private volatile boolean synced = false;
+
+    MessagePager(int chatId, MessageDecryptor decryptor, Listener listener) {
+        this.chatId = chatId;
+        this.decryptor = decryptor;
+        this.listener = listener;
+    }
+
+    void attach(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy >= 0) return;
+
+                RecyclerView.LayoutManager lm = rv.getLayoutManager();
+                if (lm instanceof LinearLayoutManager
+                        && ((LinearLayoutManager) lm).findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadOlder();
+                }
+            }
+        });
+    }
+
+    boolean isSynced() {
+        return synced;
+    }
+
+    // Deschiderea chat-ului: cache-ul local imediat, apoi serverul
+    void open() {
+        reset();
+        int openGeneration = generation;
+
+        MessageCache.newest(chatId, PAGE_SIZE)
+                .thenCompose(local -> decryptor.decryptAll(tail(local, VISIBLE_TAIL)).thenApply(ignored -> local))
+                .thenCombine(MessageCache.syncState(chatId), (local, state) -> {
+                    mainHandler.post(() -> {
+                        if (openGeneration != generation) return;
+
+                        cacheReachesStart = state != null && state.reachedStart;
+                        if (!local.isEmpty()) {
+                            oldestId = local.get(0).getId();
+                            hasMore = local.size() >= PAGE_SIZE || !cacheReachesStart;
+                            publishNewest(local);
+                        }
+                        fetchLatest(local.isEmpty() || state == null ? 0 : state.lastId, state == null ? 0 : state.cursor);
+                    });
+                    return null;
+                })
+                .exceptionally(error -> {
+                    Log.w("CACHE", "Cache-ul local nu a putut fi citit: " + error.getMessage());
+                    mainHandler.post(() -> {
+                        if (openGeneration == generation) fetchLatest(0, 0);
+                    });
+                    return null;
+                });
+    }
+
+    // Serverul a trimis singur tot istoricul (fara "page"/"sync"): ce era in curs nu mai conteaza
+    void onFullHistory(List<Message> history) {
+        reset();
+        synced = true;
+        shown = false;
+        cacheReachesStart = true;
+        MessageCache.replaceChat(chatId, history, 0, true);
+    }
+
+    // Prima pagina a ajuns pe ecran
+    void onShown() {
+        shown = true;
+        if (pendingDelta == null) return;
+
+        ClientDtos.HistorySyncResultDto delta = pendingDelta;
+        pendingDelta = null;
+        listener.onSync(delta);
+    }
+
+    void loadNewest() {
+        reset();
+        request(0);
+    }
+
+    void loadOlder() {
+        if (loading || !hasMore || oldestId == 0) return;
+
+        // Doar cu "sync" cache-ul afla si de stergerile din mesajele vechi
+        if (!TcpConnection.hasFeature(ProtocolFeatures.HISTORY_SYNC)) {
+            request(oldestId);
+            return;
+        }
+
+        loading = true;
+        int requestGeneration = generation;
+        int beforeId = oldestId;
+        MessageCache.before(chatId, beforeId, PAGE_SIZE).whenComplete((local, error) -> mainHandler.post(() -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+
+            if (error != null || (local.size() < PAGE_SIZE && !cacheReachesStart)) {
+                // Restul (sau tot) de la server
+                request(beforeId);
+                return;
+            }
+            if (local.size() < PAGE_SIZE) hasMore = false;
+            if (local.isEmpty()) return;
+            oldestId = local.get(0).getId();
+            listener.onPage(local, false);
+        }));
+    }
+
+    private void reset() {
+        generation++;
+        oldestId = 0;
+        hasMore = true;
+        cacheReachesStart = false;
+        loading = false;
+        shown = true;
+        pendingDelta = null;
+        synced = false;
+    }
+
+    private void publishNewest(List<Message> page) {
+        shown = false;
+        listener.onPage(page, true);
+    }
+
+    private void fetchLatest(int afterId, long since) {
+        if (TcpConnection.hasFeature(ProtocolFeatures.HISTORY_SYNC)) {
+            sync(afterId, since);
+        } else if (TcpConnection.hasFeature(ProtocolFeatures.PAGED_HISTORY)) {
+            request(0);
+        }
+        // Altfel istoricul vine dupa ENTER_CHAT (onFullHistory)
+    }
+
+    private void sync(int afterId, long since) {
+        int requestGeneration = generation;
+
+        ClientDtos.HistorySyncDto dto = new ClientDtos.HistorySyncDto(chatId, afterId, since, PAGE_SIZE);
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.GET_MESSAGES_REQUEST, TcpConnection.getCurrentUserId(), dto);
+
+        TcpConnection.request(packet, TcpConnection.DEFAULT_TIMEOUT_MS)
+                .thenApply(MessagePager::syncResult)
+                .thenCompose(delta -> decryptDelta(delta).thenApply(ignored -> delta))
+                .whenComplete((delta, error) -> mainHandler.post(() -> {
+                    if (requestGeneration != generation) return;
+
+                    if (error != null) {
+                        Log.w("TCP", "Sincronizarea istoricului fara raspuns: " + error.getMessage());
+                        return;
+                    }
+
+                    synced = true;
+                    if (afterId == 0 || delta.hasMore) {
+                        // Nimic local sau prea multe mesaje lipsa: lista primita e cea mai noua pagina
+                        hasMore = delta.messages.size() >= PAGE_SIZE;
+                        cacheReachesStart = !hasMore;
+                        MessageCache.replaceChat(chatId, delta.messages, delta.syncedAt, !hasMore);
+                        oldestId = delta.messages.isEmpty() ? 0 : delta.messages.get(0).getId();
+                        publishNewest(delta.messages);
+                        return;
+                    }
+
+                    MessageCache.applySync(chatId, delta);
+                    if (shown) listener.onSync(delta);
+                    else pendingDelta = delta;
+                }));
+    }
+
+    private CompletableFuture<Void> decryptDelta(ClientDtos.HistorySyncResultDto delta) {
+        for (Message m : delta.edited) decryptor.invalidate(m.getId());
+
+        List<Message> visible = new ArrayList<>(tail(delta.messages, VISIBLE_TAIL));
+        visible.addAll(delta.edited);
+        return decryptor.decryptAll(visible);
+    }
+
+    private void request(int beforeId) {
+        loading = true;
+        int requestGeneration = generation;
+
+        ClientDtos.HistoryPageDto dto = new ClientDtos.HistoryPageDto(chatId, beforeId, PAGE_SIZE);
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.GET_MESSAGES_REQUEST, TcpConnection.getCurrentUserId(), dto);
+
+        TcpConnection.request(packet, TcpConnection.DEFAULT_TIMEOUT_MS)
+                .thenApply(MessagePager::sortedPage)
+                .thenCompose(page -> beforeId == 0
+                        ? decryptor.decryptAll(tail(page, VISIBLE_TAIL)).thenApply(ignored -> page)
+                        : CompletableFuture.completedFuture(page))
+                .whenComplete((page, error) -> mainHandler.post(() -> {
+                    if (requestGeneration != generation) return;
+                    loading = false;
+
+                    if (error != null) {
+                        Log.w("TCP", "Pagina de istoric fara raspuns: " + error.getMessage());
+                        return;
+                    }
+
+                    hasMore = page.size() >= PAGE_SIZE;
+                    if (!hasMore) cacheReachesStart = true;
+                    if (!page.isEmpty()) oldestId = page.get(0).getId();
+                    if (beforeId == 0) {
+                        synced = true;
+                        MessageCache.storeNewest(chatId, page);
+                        publishNewest(page);
+                    } else {
+                        MessageCache.storeOlder(chatId, page, !hasMore);
+                        listener.onPage(page, false);
+                    }
+                }));
+    }
+
+    private static List<Message> sortedPage(InboundPacket response) {
+        Object payload = response.getPayload();
+        if (!(payload instanceof List)) return new ArrayList<>();
+
+        List<Message> page = response.getPayload();
+        Collections.sort(page, Comparator.comparingInt(Message::getId));
+        return page;
+    }
+
+    private static ClientDtos.HistorySyncResultDto syncResult(InboundPacket response) {
+        Object payload = response.getPayload();
+        ClientDtos.HistorySyncResultDto delta = payload instanceof ClientDtos.HistorySyncResultDto
+                ? (ClientDtos.HistorySyncResultDto) payload
+                : new ClientDtos.HistorySyncResultDto();
+
+        if (delta.messages == null) delta.messages = new ArrayList<>();
+        if (delta.edited == null) delta.edited = new ArrayList<>();
+        if (delta.deleted == null) delta.deleted = new ArrayList<>();
+        Collections.sort(delta.messages, Comparator.comparingInt(Message::getId));
+        return delta;
+    }
+
+    static List<Message> tail(List<Message> messages, int count) {
+        return messages.subList(Math.max(0, messages.size() - count), messages.size());
+    }
+}
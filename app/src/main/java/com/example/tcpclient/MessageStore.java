@@ -0,0 +1,256 @@
+package com.example.tcpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseIntArray;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import chat.Message;
+
+/**
+ * Lista de mesaje afisata de MessageAdapter, cu index id -> pozitie.
+ * Indexul tine un "slot" per id, iar pozitia e slot - firstSlot, deci adaugarea
+ * la final sau la inceput (pagini mai vechi) nu renumeroteaza nimic; doar
+ * stergerea muta sloturile de dupa ea. Fiecare schimbare trimite notificarea
+ * exacta (inserted/removed/changed); inlocuirea intregii liste calculeaza
+ * DiffUtil pe un thread de fundal, pe copii ale mesajelor. Daca lista s-a schimbat
+ * cat a durat diff-ul, schimbarile (mesaje noi, editari, stergeri) se aplica peste
+ * lista noua in loc sa se piarda. Toate metodele se apeleaza pe UI thread.
+ */
+final class MessageStore {
+    private static final ExecutorService diffExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "message-diff");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Comparator<Message> BY_ID = (a, b) -> Integer.compare(a.getId(), b.getId());
+
+    private final List<Message> items = new ArrayList<>();
+    private final SparseIntArray slots = new SparseIntArray();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int firstSlot = 0;
+    // Creste la fiecare schimbare; un diff calculat pe o versiune veche nu se mai aplica
+    private int version = 0;
+    // Schimbarile facute cat timp ruleaza un diff, cate una pentru fiecare replaceAll in curs
+    private final List<Changes> pending = new ArrayList<>();
+
+    private static final class Changes {
+        final Set<Integer> added = new HashSet<>();
+        final Set<Integer> edited = new HashSet<>();
+        final Set<Integer> removed = new HashSet<>();
+    }
+
+    private RecyclerView.Adapter<?> adapter;
+
+    void attach(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    // Citita de adapter; se modifica doar prin metodele de mai jos
+    List<Message> items() {
+        return items;
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    int positionOf(int messageId) {
+        int slot = slots.get(messageId, Integer.MIN_VALUE);
+        return slot == Integer.MIN_VALUE ? -1 : slot - firstSlot;
+    }
+
+    // Mesaj nou la final; daca id-ul exista deja (retrimis) doar il actualizam
+    void append(Message message) {
+        int existing = positionOf(message.getId());
+        version++;
+        for (Changes c : pending) c.edited.add(message.getId());
+        if (existing >= 0) {
+            items.set(existing, message);
+            changed(existing);
+            return;
+        }
+
+        for (Changes c : pending) {
+            c.added.add(message.getId());
+            c.removed.remove(message.getId());
+        }
+        slots.put(message.getId(), firstSlot + items.size());
+        items.add(message);
+        adapter.notifyItemInserted(items.size() - 1);
+    }
+
+    // Pagina mai veche, in ordine crescatoare, pusa inaintea celor existente
+    void prepend(List<Message> page) {
+        List<Message> fresh = new ArrayList<>(page.size());
+        for (Message m : page) {
+            if (positionOf(m.getId()) < 0) fresh.add(m);
+        }
+        if (fresh.isEmpty()) return;
+
+        version++;
+        for (Message m : fresh) {
+            for (Changes c : pending) c.added.add(m.getId());
+        }
+        firstSlot -= fresh.size();
+        for (int i = 0; i < fresh.size(); i++) {
+            slots.put(fresh.get(i).getId(), firstSlot + i);
+        }
+        items.addAll(0, fresh);
+        adapter.notifyItemRangeInserted(0, fresh.size());
+        // Fostul prim mesaj poate pierde antetul de zi
+        if (items.size() > fresh.size()) {
+            adapter.notifyItemChanged(fresh.size());
+        }
+    }
+
+    boolean updateContent(int messageId, byte[] content) {
+        int position = positionOf(messageId);
+        if (position < 0) return false;
+
+        version++;
+        for (Changes c : pending) c.edited.add(messageId);
+        items.get(position).setContent(content);
+        changed(position);
+        return true;
+    }
+
+    boolean remove(int messageId) {
+        int position = positionOf(messageId);
+        if (position < 0) return false;
+
+        version++;
+        for (Changes c : pending) {
+            c.removed.add(messageId);
+            c.added.remove(messageId);
+        }
+        items.remove(position);
+        slots.delete(messageId);
+        for (int i = position; i < items.size(); i++) {
+            slots.put(items.get(i).getId(), firstSlot + i);
+        }
+
+        adapter.notifyItemRemoved(position);
+        // Urmatorul mesaj poate avea nevoie de antetul de zi al celui sters
+        if (position < items.size()) adapter.notifyItemChanged(position);
+        return true;
+    }
+
+    void changed(int position) {
+        adapter.notifyItemChanged(position);
+    }
+
+    // Lista noua (istoric incarcat din nou): diff pe fundal, aplicat doar daca intre timp nu s-a schimbat nimic
+    void replaceAll(List<Message> fresh, Runnable onApplied) {
+        // Thread-ul de diff lucreaza doar pe copii: updateContent modifica mesajele din items
+        List<Message> old = copyOf(items);
+        List<Message> next = copyOf(fresh);
+        int expected = version;
+        Changes changes = new Changes();
+        pending.add(changes);
+
+        diffExecutor.execute(() -> {
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return old.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return next.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPos, int newPos) {
+                    return old.get(oldPos).getId() == next.get(newPos).getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPos, int newPos) {
+                    Message a = old.get(oldPos);
+                    Message b = next.get(newPos);
+                    // Si pozitia conteaza: antetul de zi depinde de mesajul anterior
+                    return a.getTimestamp() == b.getTimestamp()
+                            && Arrays.equals(a.getContent(), b.getContent())
+                            && sameDayAnchor(old, oldPos, next, newPos);
+                }
+            }, false);
+
+            mainHandler.post(() -> {
+                pending.remove(changes);
+                if (version == expected) {
+                    reset(next);
+                    diff.dispatchUpdatesTo(adapter);
+                } else {
+                    // Lista s-a schimbat intre timp: schimbarile se aplica peste lista noua,
+                    // iar diff-ul nu mai corespunde
+                    reset(merge(next, changes));
+                    adapter.notifyDataSetChanged();
+                }
+                if (onApplied != null) onApplied.run();
+            });
+        });
+    }
+
+    private void reset(List<Message> fresh) {
+        version++;
+        items.clear();
+        items.addAll(fresh);
+        slots.clear();
+        firstSlot = 0;
+        for (int i = 0; i < items.size(); i++) {
+            slots.put(items.get(i).getId(), i);
+        }
+    }
+
+    // Lista noua, fara ce s-a sters intre timp, cu versiunea curenta a mesajelor editate
+    // si cu mesajele adaugate intre timp, in ordinea id-urilor
+    private List<Message> merge(List<Message> fresh, Changes changes) {
+        List<Message> merged = new ArrayList<>(fresh.size() + changes.added.size());
+        Set<Integer> ids = new HashSet<>();
+        for (Message m : fresh) {
+            if (changes.removed.contains(m.getId())) continue;
+            int position = changes.edited.contains(m.getId()) ? positionOf(m.getId()) : -1;
+            merged.add(position >= 0 ? items.get(position) : m);
+            ids.add(m.getId());
+        }
+        for (Message m : items) {
+            if (changes.added.contains(m.getId()) && ids.add(m.getId())) merged.add(m);
+        }
+        Collections.sort(merged, BY_ID);
+        return merged;
+    }
+
+    private static List<Message> copyOf(List<Message> messages) {
+        List<Message> copy = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            byte[] content = m.getContent() != null ? m.getContent().clone() : null;
+            copy.add(new Message(m.getId(), content, m.getTimestamp(), m.getSenderId(), m.getGroupId()));
+        }
+        return copy;
+    }
+
+    private static boolean sameDayAnchor(List<Message> old, int oldPos, List<Message> next, int newPos) {
+        long before = oldPos > 0 ? old.get(oldPos - 1).getTimestamp() : -1;
+        long after = newPos > 0 ? next.get(newPos - 1).getTimestamp() : -1;
+        return before == after;
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.tcpclient;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import chat.ChatDtos;
+import chat.Message;
+import chat.NetworkPacket;
+import chat.PacketType;
+
+/**
+ * Coada persistenta pentru ce trimite utilizatorul (SEND_MESSAGE, EDIT, DELETE).
+ * Pachetul e scris intai in baza criptata, apoi trimis, cu un clientId fix.
+ * Fara "ack" negociat serverul nu stie sa ignore dublurile, deci livrarea e cel
+ * mult o data: randul se sterge cand scrierea pe socket a reusit si ramane doar
+ * daca scrierea a esuat (pleaca la reconectare).
+ * Cu "ack" randul se sterge doar cand serverul l-a confirmat: un raspuns cu
+ * clientId-ul sau requestId-ul lui, sau broadcast-ul corespunzator (RECEIVE_MESSAGE
+ * de la noi cu acelasi continut, EDIT/DELETE_MESSAGE_BROADCAST pe acelasi mesaj).
+ * Ce nu a fost confirmat se trimite din nou dupa fiecare login / reconectare, in
+ * ordinea in care a fost creat, cu acelasi clientId; dupa MAX_ATTEMPTS incercari
+ * fara confirmare intrarea e aruncata.
+ * Tot accesul la baza se face pe un singur thread de fundal.
+ */
+final class Outbox {
+    private static final int BATCH_SIZE = 32;
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "outbox-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile OutboxDao dao;
+
+    // Trimis pe conexiunea curenta, asteapta confirmarea
+    private static final class InFlight {
+        final long seq;
+        final String clientId;
+        final int packetId;
+        final PacketType type;
+        final Object payload;
+
+        InFlight(long seq, String clientId, int packetId, PacketType type, Object payload) {
+            this.seq = seq;
+            this.clientId = clientId;
+            this.packetId = packetId;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    // Sub lock pe inFlight; cititorul de pe socket cauta aici confirmarile
+    private static final List<InFlight> inFlight = new ArrayList<>();
+
+    // Doar pe io: cel mai mare seq trimis pe conexiunea curenta
+    private static long sentUpTo = 0;
+
+    private Outbox() {
+    }
+
+    static void init(Context context) {
+        if (dao != null) return;
+        Context app = context.getApplicationContext();
+        io.execute(() -> {
+            if (dao != null) return;
+            try {
+                dao = ChatDatabase.get(app).outboxDao();
+            } catch (Exception e) {
+                Log.e("OUTBOX", "Nu pot deschide baza locala: " + e.getMessage());
+            }
+        });
+    }
+
+    static void enqueue(NetworkPacket packet) {
+        io.execute(() -> {
+            if (dao == null) {
+                // Fara baza locala ramane doar coada din memorie
+                TcpConnection.sendPacket(packet);
+                return;
+            }
+
+            OutboxEntry entry = new OutboxEntry();
+            entry.clientId = UUID.randomUUID().toString();
+            entry.type = packet.getType().name();
+            entry.senderId = packet.getSenderId();
+            // Forma portabila (byte[] ca numere); la trimitere se reencodeaza pentru conexiunea de atunci
+            entry.payloadJson = packet.getPayload() != null ? packet.getPayload().toString() : null;
+            entry.createdAt = System.currentTimeMillis();
+            dao.insert(entry);
+
+            flushNow();
+        });
+    }
+
+    // Trimite ce nu a plecat inca pe conexiunea curenta
+    static void flush() {
+        io.execute(Outbox::flushNow);
+    }
+
+    // Conexiune noua (login, reconectare): tot ce e inca pe disc pleaca din nou
+    static void resendAll() {
+        io.execute(() -> {
+            sentUpTo = 0;
+            synchronized (inFlight) {
+                inFlight.clear();
+            }
+            flushNow();
+        });
+    }
+
+    // Pe thread-ul de citire, pentru fiecare pachet primit
+    static void onInbound(InboundPacket packet) {
+        InFlight acked = null;
+        synchronized (inFlight) {
+            if (inFlight.isEmpty()) return;
+
+            for (Iterator<InFlight> it = inFlight.iterator(); it.hasNext(); ) {
+                InFlight pending = it.next();
+                if (acknowledges(packet, pending)) {
+                    it.remove();
+                    acked = pending;
+                    break;
+                }
+            }
+        }
+        if (acked == null) return;
+
+        long seq = acked.seq;
+        io.execute(() -> {
+            if (dao != null) dao.delete(Collections.singletonList(seq));
+        });
+    }
+
+    private static boolean acknowledges(InboundPacket packet, InFlight pending) {
+        if (packet.getClientId() != null) return packet.getClientId().equals(pending.clientId);
+        if (packet.getRequestId() != 0 && packet.getRequestId() == pending.packetId) return true;
+
+        Object payload = packet.getPayload();
+        if (packet.getType() == PacketType.RECEIVE_MESSAGE && pending.type == PacketType.SEND_MESSAGE
+                && payload instanceof Message && pending.payload instanceof Message) {
+            Message received = (Message) payload;
+            Message sent = (Message) pending.payload;
+            return received.getSenderId() == TcpConnection.getCurrentUserId()
+                    && received.getGroupId() == sent.getGroupId()
+                    && Arrays.equals(received.getContent(), sent.getContent());
+        }
+        if (packet.getType() == PacketType.EDIT_MESSAGE_BROADCAST && pending.type == PacketType.EDIT_MESSAGE_REQUEST
+                && payload instanceof ChatDtos.EditMessageDto && pending.payload instanceof ChatDtos.EditMessageDto) {
+            ChatDtos.EditMessageDto received = (ChatDtos.EditMessageDto) payload;
+            ChatDtos.EditMessageDto sent = (ChatDtos.EditMessageDto) pending.payload;
+            return received.messageId == sent.messageId && Arrays.equals(received.newContent, sent.newContent);
+        }
+        return packet.getType() == PacketType.DELETE_MESSAGE_BROADCAST
+                && pending.type == PacketType.DELETE_MESSAGE_REQUEST
+                && payload != null && payload.equals(pending.payload);
+    }
+
+    private static void flushNow() {
+        if (dao == null) return;
+
+        while (TcpConnection.isConnected() && ConnectionSupervisor.isActive()) {
+            // Se decide pe conexiunea curenta: alt server poate sa nu mai confirme
+            boolean acked = TcpConnection.hasFeature(ProtocolFeatures.OUTBOX_ACK);
+            List<OutboxEntry> batch = dao.nextBatch(TcpConnection.getCurrentUserId(), sentUpTo, BATCH_SIZE);
+            if (batch.isEmpty()) return;
+
+            // Tot lotul intra in coada writer-ului deodata, deci pleaca cu un singur flush
+            List<Long> dropped = new ArrayList<>();
+            List<InFlight> queued = new ArrayList<>();
+            List<CompletableFuture<Void>> sends = new ArrayList<>();
+            for (OutboxEntry entry : batch) {
+                if (entry.attempts >= MAX_ATTEMPTS) {
+                    Log.w("OUTBOX", "Fara confirmare dupa " + entry.attempts + " incercari, aruncat: " + entry.type);
+                    dropped.add(entry.seq);
+                    continue;
+                }
+                NetworkPacket packet = toPacket(entry);
+                if (packet == null) {
+                    dropped.add(entry.seq);
+                    continue;
+                }
+
+                int packetId = TcpConnection.newPacketId();
+                InFlight pending = new InFlight(entry.seq, entry.clientId, packetId, packet.getType(),
+                        PacketCodec.payloadOf(packet));
+                if (acked) {
+                    // Inainte de trimitere: confirmarea poate veni inainte sa se termine scrierea
+                    synchronized (inFlight) {
+                        inFlight.add(pending);
+                    }
+                }
+                queued.add(pending);
+                sends.add(TcpConnection.sendDurable(packet, packetId, entry.clientId));
+            }
+            if (!dropped.isEmpty()) dao.delete(dropped);
+
+            List<Long> written = new ArrayList<>();
+            long firstFailed = Long.MAX_VALUE;
+            for (int i = 0; i < queued.size(); i++) {
+                try {
+                    sends.get(i).get(TcpConnection.DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    written.add(queued.get(i).seq);
+                } catch (Exception e) {
+                    firstFailed = Math.min(firstFailed, queued.get(i).seq);
+                }
+            }
+            if (!written.isEmpty()) {
+                // Fara "ack" nimeni nu ar recunoaste o retrimitere, deci scrierea e ultima incercare
+                if (acked) dao.markAttempted(written);
+                else dao.delete(written);
+            }
+
+            if (firstFailed != Long.MAX_VALUE) {
+                // Raman pe disc; pleaca din nou la urmatorul flush / la reconectare
+                sentUpTo = firstFailed - 1;
+                Log.w("OUTBOX", "Scriere esuata, pachetele raman in outbox pana la reconectare.");
+                return;
+            }
+            sentUpTo = batch.get(batch.size() - 1).seq;
+        }
+    }
+
+    private static NetworkPacket toPacket(OutboxEntry entry) {
+        try {
+            PacketType type = PacketType.valueOf(entry.type);
+            Object payload = entry.payloadJson != null
+                    ? PacketCodec.GSON.fromJson(entry.payloadJson, PacketCodec.outboundPayloadType(type))
+                    : null;
+            return PacketCodec.newPacket(type, entry.senderId, payload);
+        } catch (Exception e) {
+            Log.e("OUTBOX", "Intrare invalida aruncata: " + entry.type);
+            return null;
+        }
+    }
+}
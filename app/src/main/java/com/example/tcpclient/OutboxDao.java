@@ -0,0 +1,27 @@
+package com.example.tcpclient;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface OutboxDao {
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insert(OutboxEntry entry);
+
+    // In ordinea in care au fost create, doar pentru utilizatorul logat, dupa cele trimise deja pe conexiunea curenta
+    @Query("SELECT * FROM outbox WHERE senderId = :senderId AND seq > :afterSeq ORDER BY seq LIMIT :limit")
+    List<OutboxEntry> nextBatch(int senderId, long afterSeq, int limit);
+
+    @Query("DELETE FROM outbox WHERE seq IN (:seqs)")
+    void delete(List<Long> seqs);
+
+    @Query("UPDATE outbox SET attempts = attempts + 1 WHERE seq IN (:seqs)")
+    void markAttempted(List<Long> seqs);
+
+    @Query("SELECT COUNT(*) FROM outbox WHERE senderId = :senderId")
+    int count(int senderId);
+}
@@ -0,0 +1,31 @@
+package com.example.tcpclient;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Un pachet trimis de utilizator (mesaj nou, editare, stergere) care inca nu a fost
+ * scris pe socket sau, cu "ack", pe care serverul inca nu l-a confirmat. clientId e generat o singura data, la creare, si merge
+ * la server la fiecare incercare, ca serverul sa poata ignora dublurile.
+ */
+@Entity(tableName = "outbox", indices = {@Index(value = "clientId", unique = true)})
+public class OutboxEntry {
+    @PrimaryKey(autoGenerate = true)
+    public long seq;
+
+    @NonNull
+    public String clientId = "";
+
+    @NonNull
+    public String type = "";
+
+    public int senderId;
+
+    public String payloadJson;
+
+    public long createdAt;
+
+    public int attempts;
+}
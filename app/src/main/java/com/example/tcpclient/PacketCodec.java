@@ -0,0 +1,252 @@
+package com.example.tcpclient;
+
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import chat.ChatDtos;
+import chat.GroupChat;
+import chat.Message;
+import chat.NetworkPacket;
+import chat.PacketType;
+
+/**
+ * Decodare in flux a pachetelor: citim "type" primul (asa il scrie si serverul,
+ * in ordinea campurilor din NetworkPacket) si legam "payload" direct in DTO-ul
+ * potrivit, fara String intermediar si fara arbore JsonElement.
+ */
+final class PacketCodec {
+    private static volatile boolean compactBytes = false;
+
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(byte[].class, new ByteArrayAdapter().nullSafe())
+            .create();
+
+    private static final Map<PacketType, Type> PAYLOAD_TYPES = new EnumMap<>(PacketType.class);
+
+    static {
+        Type messageList = new TypeToken<List<Message>>(){}.getType();
+
+        // LOGIN/REGISTER raspund fie cu un User, fie cu un String de eroare
+        PAYLOAD_TYPES.put(PacketType.LOGIN_RESPONSE, JsonElement.class);
+        PAYLOAD_TYPES.put(PacketType.REGISTER_RESPONSE, JsonElement.class);
+        PAYLOAD_TYPES.put(PacketType.KYBER_SERVER_HELLO, String.class);
+        PAYLOAD_TYPES.put(PacketType.SECURE_ENVELOPE, String.class);
+
+        PAYLOAD_TYPES.put(PacketType.GET_CHATS_RESPONSE, new TypeToken<List<GroupChat>>(){}.getType());
+        PAYLOAD_TYPES.put(PacketType.GET_USERS_RESPONSE, new TypeToken<List<String>>(){}.getType());
+        PAYLOAD_TYPES.put(PacketType.CREATE_CHAT_BROADCAST, GroupChat.class);
+        PAYLOAD_TYPES.put(PacketType.RENAME_CHAT_BROADCAST, ChatDtos.RenameGroupDto.class);
+        PAYLOAD_TYPES.put(PacketType.DELETE_CHAT_BROADCAST, Integer.class);
+        PAYLOAD_TYPES.put(PacketType.EXCHANGE_SESSION_KEY, ChatDtos.SessionKeyDto.class);
+
+        PAYLOAD_TYPES.put(PacketType.GET_MESSAGES_RESPONSE, messageList);
+        PAYLOAD_TYPES.put(PacketType.RECEIVE_MESSAGE, Message.class);
+        PAYLOAD_TYPES.put(PacketType.EDIT_MESSAGE_BROADCAST, ChatDtos.EditMessageDto.class);
+        PAYLOAD_TYPES.put(PacketType.DELETE_MESSAGE_BROADCAST, Integer.class);
+    }
+
+    // Raspunsuri care, la extensiile negociate, vin ca obiect in loc de lista
+    private static final Map<PacketType, Type> OBJECT_PAYLOAD_TYPES = new EnumMap<>(PacketType.class);
+
+    static {
+        OBJECT_PAYLOAD_TYPES.put(PacketType.GET_MESSAGES_RESPONSE, ClientDtos.HistorySyncResultDto.class);
+        OBJECT_PAYLOAD_TYPES.put(PacketType.GET_CHATS_RESPONSE, ClientDtos.ChatListDeltaDto.class);
+    }
+
+    private static final TypeAdapter<PacketType> TYPE_ADAPTER = GSON.getAdapter(PacketType.class);
+
+    private PacketCodec() {
+    }
+
+    // Activat dupa handshake doar daca serverul a acceptat "b64"
+    static void setCompactBytes(boolean enabled) {
+        compactBytes = enabled;
+    }
+
+    // Pachetul pastreaza DTO-ul, serializat cu GSON-ul nostru abia in toJson, pe conexiunea
+    // pe care pleaca: byte[] ca Base64 doar daca acea conexiune a negociat "b64". Pachetele
+    // puse deoparte (ConnectionSupervisor) sau salvate (Outbox) pot pleca pe alta conexiune.
+    static NetworkPacket newPacket(PacketType type, int senderId, Object payload) {
+        return new DtoPacket(type, senderId, payload);
+    }
+
+    // Requesturile care pot fi salvate in Outbox, legate inapoi in DTO la citire
+    static Type outboundPayloadType(PacketType type) {
+        switch (type) {
+            case SEND_MESSAGE:
+                return Message.class;
+            case EDIT_MESSAGE_REQUEST:
+                return ChatDtos.EditMessageDto.class;
+            case DELETE_MESSAGE_REQUEST:
+                return Integer.class;
+            default:
+                return JsonElement.class;
+        }
+    }
+
+    static PacketType responseTypeFor(PacketType requestType) {
+        String name = requestType.name();
+        if (!name.endsWith("_REQUEST")) return null;
+
+        try {
+            return PacketType.valueOf(name.substring(0, name.length() - "_REQUEST".length()) + "_RESPONSE");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static String toJson(NetworkPacket packet, int requestId) throws IOException {
+        return toJson(packet, requestId, null);
+    }
+
+    // Ca NetworkPacket.toJson(), plus "requestId" cand pachetul asteapta un raspuns
+    // si "clientId" pentru pachetele din Outbox. Serverele vechi ignora campurile necunoscute.
+    static String toJson(NetworkPacket packet, int requestId, String clientId) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+
+        writer.beginObject();
+        writer.name("type").value(packet.getType().name());
+        writer.name("senderId").value(packet.getSenderId());
+        Object payload = payloadOf(packet);
+        if (payload != null && !(payload instanceof JsonNull)) {
+            writer.name("payload");
+            GSON.toJson(payload, payload.getClass(), writer);
+        }
+        if (requestId != 0) {
+            writer.name("requestId").value(requestId);
+        }
+        if (clientId != null) {
+            writer.name("clientId").value(clientId);
+        }
+        writer.endObject();
+        writer.flush();
+
+        return json.toString();
+    }
+
+    // DTO-ul unui pachet facut cu newPacket, altfel arborele JSON
+    static Object payloadOf(NetworkPacket packet) {
+        return packet instanceof DtoPacket ? ((DtoPacket) packet).dto : packet.getPayload();
+    }
+
+    static Type payloadType(PacketType type) {
+        Type payloadType = type == null ? null : PAYLOAD_TYPES.get(type);
+        return payloadType != null ? payloadType : JsonElement.class;
+    }
+
+    static InboundPacket read(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.END_DOCUMENT) {
+            return null;
+        }
+
+        PacketType type = null;
+        int senderId = 0;
+        int requestId = 0;
+        String clientId = null;
+        Object payload = null;
+        JsonElement earlyPayload = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    type = TYPE_ADAPTER.read(reader);
+                    break;
+                case "senderId":
+                    senderId = reader.nextInt();
+                    break;
+                case "requestId":
+                    requestId = reader.nextInt();
+                    break;
+                case "clientId":
+                    clientId = reader.nextString();
+                    break;
+                case "payload":
+                    if (type != null) {
+                        Type object = reader.peek() == JsonToken.BEGIN_OBJECT ? OBJECT_PAYLOAD_TYPES.get(type) : null;
+                        payload = GSON.fromJson(reader, object != null ? object : payloadType(type));
+                    } else {
+                        // payload inaintea tipului: nu stim inca in ce sa-l legam
+                        earlyPayload = GSON.fromJson(reader, JsonElement.class);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (earlyPayload != null) {
+            Type object = earlyPayload.isJsonObject() && type != null ? OBJECT_PAYLOAD_TYPES.get(type) : null;
+            payload = GSON.fromJson(earlyPayload, object != null ? object : payloadType(type));
+        }
+        return new InboundPacket(type, senderId, payload, requestId, clientId);
+    }
+
+    /**
+     * getPayload() (arborele din chat-lib) ramane in forma portabila, cu byte[] ca array
+     * de numere, pe care o inteleg toate serverele; de aceea o salveaza Outbox-ul.
+     */
+    private static final class DtoPacket extends NetworkPacket {
+        final Object dto;
+
+        DtoPacket(PacketType type, int senderId, Object dto) {
+            super(type, senderId, dto);
+            this.dto = dto;
+        }
+    }
+
+    /**
+     * byte[] implicit din Gson e un array de numere ([12,-87,...]), de 3-4 ori
+     * mai mare decat continutul. Scriem Base64 cand serverul stie, si citim
+     * ambele forme ca serverele vechi sa mearga in continuare.
+     */
+    private static final class ByteArrayAdapter extends TypeAdapter<byte[]> {
+        @Override
+        public void write(JsonWriter out, byte[] value) throws IOException {
+            if (compactBytes) {
+                out.value(Base64.encodeToString(value, Base64.NO_WRAP));
+                return;
+            }
+
+            out.beginArray();
+            for (byte b : value) {
+                out.value(b);
+            }
+            out.endArray();
+        }
+
+        @Override
+        public byte[] read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.STRING) {
+                return Base64.decode(in.nextString(), Base64.NO_WRAP);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            in.beginArray();
+            while (in.hasNext()) {
+                bytes.write(in.nextInt());
+            }
+            in.endArray();
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.tcpclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import chat.PacketType;
+
+/**
+ * Distribuie pachetele primite catre abonatii fiecarui PacketType.
+ * Partea grea (decode, decriptare, salvari) ruleaza pe un thread de fundal,
+ * pe UI ajunge doar rezultatul. Un singur thread de fundal, ca pachetele
+ * sa fie aplicate in ordinea in care au venit.
+ * Pachetele fara abonat sunt tinute putin (ex. intre onPause si onResume)
+ * si livrate primului care se aboneaza la tipul lor.
+ */
+public final class PacketDispatcher {
+    private static final int MAX_BUFFERED = 64;
+    private static final long BUFFER_TTL_MS = 5_000;
+
+    public interface Decoder<T> {
+        // Pe thread-ul de fundal. null = nu livra nimic pe UI.
+        T decode(InboundPacket packet) throws Exception;
+    }
+
+    public interface Subscriber<T> {
+        // Pe UI thread
+        void onPacket(T result);
+    }
+
+    public static final class Subscription {
+        private final PacketType type;
+        private final Decoder<?> decoder;
+        private final Subscriber<?> subscriber;
+        private volatile boolean cancelled = false;
+
+        private Subscription(PacketType type, Decoder<?> decoder, Subscriber<?> subscriber) {
+            this.type = type;
+            this.decoder = decoder;
+            this.subscriber = subscriber;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            List<Subscription> list = subscribers.get(type);
+            if (list != null) list.remove(this);
+        }
+    }
+
+    private static final class BufferedPacket {
+        final InboundPacket packet;
+        final long receivedAt;
+
+        BufferedPacket(InboundPacket packet, long receivedAt) {
+            this.packet = packet;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private static final Map<PacketType, List<Subscription>> subscribers = new EnumMap<>(PacketType.class);
+    private static final ArrayDeque<BufferedPacket> unclaimed = new ArrayDeque<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "packet-decode");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        for (PacketType type : PacketType.values()) {
+            subscribers.put(type, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    private PacketDispatcher() {
+    }
+
+    public static Subscription subscribe(PacketType type, Subscriber<InboundPacket> subscriber) {
+        return subscribe(type, packet -> packet, subscriber);
+    }
+
+    public static <T> Subscription subscribe(PacketType type, Decoder<T> decoder, Subscriber<T> subscriber) {
+        Subscription subscription = new Subscription(type, decoder, subscriber);
+
+        // Sub acelasi lock ca dispatch, ca pachetele tinute sa ajunga inaintea celor noi
+        synchronized (unclaimed) {
+            subscribers.get(type).add(subscription);
+            for (InboundPacket packet : takeBuffered(type)) {
+                deliver(subscription, packet);
+            }
+        }
+        return subscription;
+    }
+
+    public static void cancelAll(List<Subscription> subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+        subscriptions.clear();
+    }
+
+    static void dispatch(InboundPacket packet) {
+        if (packet.getType() == null) {
+            Log.w("TCP", "Pachet cu tip necunoscut ignorat.");
+            return;
+        }
+
+        synchronized (unclaimed) {
+            List<Subscription> list = subscribers.get(packet.getType());
+            if (list.isEmpty()) {
+                buffer(packet);
+                return;
+            }
+
+            for (Subscription subscription : list) {
+                deliver(subscription, packet);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(Subscription subscription, InboundPacket packet) {
+        decodeExecutor.execute(() -> {
+            if (subscription.cancelled) return;
+
+            Object result;
+            try {
+                result = ((Decoder<Object>) subscription.decoder).decode(packet);
+            } catch (Exception e) {
+                Log.e("TCP", "Eroare procesare " + packet.getType() + ": " + e.getMessage());
+                return;
+            }
+            if (result == null) return;
+
+            mainHandler.post(() -> {
+                if (!subscription.cancelled) {
+                    ((Subscriber<Object>) subscription.subscriber).onPacket(result);
+                }
+            });
+        });
+    }
+
+    // Apelate doar cu lock pe unclaimed
+    private static void buffer(InboundPacket packet) {
+        dropExpired(SystemClock.elapsedRealtime());
+        if (unclaimed.size() >= MAX_BUFFERED) {
+            BufferedPacket dropped = unclaimed.removeFirst();
+            Log.w("TCP", "Pachet ignorat (niciun listener activ): " + dropped.packet.getType());
+        }
+        unclaimed.addLast(new BufferedPacket(packet, SystemClock.elapsedRealtime()));
+    }
+
+    private static List<InboundPacket> takeBuffered(PacketType type) {
+        List<InboundPacket> packets = new ArrayList<>();
+        dropExpired(SystemClock.elapsedRealtime());
+        Iterator<BufferedPacket> it = unclaimed.iterator();
+        while (it.hasNext()) {
+            BufferedPacket buffered = it.next();
+            if (buffered.packet.getType() == type) {
+                packets.add(buffered.packet);
+                it.remove();
+            }
+        }
+        return packets;
+    }
+
+    private static void dropExpired(long now) {
+        while (!unclaimed.isEmpty() && now - unclaimed.peekFirst().receivedAt > BUFFER_TTL_MS) {
+            BufferedPacket expired = unclaimed.removeFirst();
+            Log.w("TCP", "Pachet ignorat (niciun listener activ): " + expired.packet.getType());
+        }
+    }
+}
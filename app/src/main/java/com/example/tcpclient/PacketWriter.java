@@ -0,0 +1,331 @@
+package com.example.tcpclient;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chat.NetworkPacket;
+import chat.PacketType;
+
+/**
+ * Un singur thread care scrie pe socket. Pachetele stau pe trei benzi:
+ * CONTROL (ping/pong, chei, login, apeluri), INTERACTIVE (mesaje, editari, chat-uri)
+ * si BULK (liste, istoric). Fiecare banda are coada ei limitata; cand e plina,
+ * cine trimite asteapta (backpressure), iar pe UI thread primeste eroare imediat.
+ * In fiecare lot CONTROL pleaca primul, apoi INTERACTIVE si BULK cu ponderi,
+ * ca un transfer mare sa nu intarzie mesajele scrise de utilizator.
+ * In cadrul unei benzi ordinea e cea de enqueue. Un lot pleaca cu un singur flush.
+ * Cu un Batcher, pachetele sigilate consecutive din lot devin un singur record
+ * (o criptare, un tag); writer-ul asteapta putin dupa primul pachet ca sa adune mai multe.
+ */
+class PacketWriter {
+    private static final int MAX_BATCH = 32;
+    // Cand ambele benzi au pachete: pana la atatea interactive la un bulk
+    private static final int INTERACTIVE_WEIGHT = 8;
+    private static final int BULK_WEIGHT = 1;
+    // Bulk singur: loturi mici, ca un mesaj nou sa nu astepte dupa multe
+    private static final int BULK_ONLY_BATCH = 4;
+    private static final long OFFER_TIMEOUT_MS = 2_000;
+    private static final long BATCH_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final int MAX_RECORD_CHARS = 64 * 1024;
+
+    enum Lane {
+        CONTROL(64),
+        INTERACTIVE(256),
+        BULK(128);
+
+        final int capacity;
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    interface Encoder {
+        byte[] encode(NetworkPacket packet, int requestId, String clientId) throws Exception;
+    }
+
+    interface Batcher {
+        // JSON-ul pachetului daca poate intra intr-un record comun, altfel null
+        String batchable(NetworkPacket packet, int requestId, String clientId) throws Exception;
+
+        byte[] seal(List<NetworkPacket> packets, List<String> json) throws Exception;
+    }
+
+    private static class PendingPacket {
+        final NetworkPacket packet;
+        final int requestId;
+        final String clientId;
+        // Frame-uri de control (ping, pong): se construiesc direct, fara Encoder
+        final Callable<byte[]> control;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+
+        PendingPacket(NetworkPacket packet, int requestId, String clientId, Callable<byte[]> control) {
+            this.packet = packet;
+            this.requestId = requestId;
+            this.clientId = clientId;
+            this.control = control;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Lane, ArrayDeque<PendingPacket>> lanes = new EnumMap<>(Lane.class);
+    private final Map<Lane, Condition> notFull = new EnumMap<>(Lane.class);
+
+    private final OutputStream out;
+    private final Encoder encoder;
+    private final Batcher batcher;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    PacketWriter(OutputStream out, Encoder encoder, Batcher batcher) {
+        this.out = out;
+        this.encoder = encoder;
+        this.batcher = batcher;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>(lane.capacity));
+            notFull.put(lane, lock.newCondition());
+        }
+        this.thread = new Thread(this::writeLoop, "tcp-writer");
+        this.thread.start();
+    }
+
+    static Lane laneFor(PacketType type) {
+        if (type == null) return Lane.INTERACTIVE;
+        switch (type) {
+            case LOGIN_REQUEST:
+            case REGISTER_REQUEST:
+            case EXCHANGE_SESSION_KEY:
+            case EXCHANGE_VOICE_KEY:
+            case CALL_REQUEST:
+            case CALL_ACCEPT:
+            case CALL_DENY:
+            case CALL_END:
+                return Lane.CONTROL;
+
+            case GET_CHATS_REQUEST:
+            case GET_USERS_REQUEST:
+            case GET_MESSAGES_REQUEST:
+            case GET_GROUP_MEMBERS_REQUEST:
+                return Lane.BULK;
+
+            // LOGOUT, ENTER/EXIT_CHAT raman in ordine cu mesajele trimise inaintea lor
+            default:
+                return Lane.INTERACTIVE;
+        }
+    }
+
+    CompletableFuture<Void> enqueue(NetworkPacket packet, int requestId, String clientId) {
+        return offer(laneFor(packet.getType()), new PendingPacket(packet, requestId, clientId, null));
+    }
+
+    CompletableFuture<Void> enqueueControl(Callable<byte[]> frame) {
+        return offer(Lane.CONTROL, new PendingPacket(null, 0, null, frame));
+    }
+
+    private CompletableFuture<Void> offer(Lane lane, PendingPacket pending) {
+        boolean mayWait = mayWait();
+        ArrayDeque<PendingPacket> queue = lanes.get(lane);
+
+        lock.lock();
+        try {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(OFFER_TIMEOUT_MS);
+            while (running && queue.size() >= lane.capacity && mayWait && waitNanos > 0) {
+                waitNanos = notFull.get(lane).awaitNanos(waitNanos);
+            }
+
+            if (!running) {
+                pending.future.completeExceptionally(new IOException("Writer oprit"));
+            } else if (queue.size() >= lane.capacity) {
+                pending.future.completeExceptionally(new IOException("Coada de trimitere plina (" + lane + ")"));
+            } else {
+                queue.addLast(pending);
+                notEmpty.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return pending.future;
+    }
+
+    // Pe UI thread nu asteptam niciodata dupa o coada plina
+    boolean mayWait() {
+        return Looper.myLooper() != Looper.getMainLooper();
+    }
+
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void writeLoop() {
+        List<PendingPacket> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running) {
+                takeBatch(batch);
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            Log.e("TCP", "Send Error: " + e.getMessage());
+            failAll(batch, e);
+        } finally {
+            running = false;
+            List<PendingPacket> left = new ArrayList<>();
+            lock.lock();
+            try {
+                for (Lane lane : Lane.values()) {
+                    left.addAll(lanes.get(lane));
+                    lanes.get(lane).clear();
+                    notFull.get(lane).signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            failAll(left, new IOException("Conexiune inchisa"));
+        }
+    }
+
+    private void takeBatch(List<PendingPacket> batch) throws InterruptedException {
+        ArrayDeque<PendingPacket> control = lanes.get(Lane.CONTROL);
+        ArrayDeque<PendingPacket> interactive = lanes.get(Lane.INTERACTIVE);
+        ArrayDeque<PendingPacket> bulk = lanes.get(Lane.BULK);
+
+        lock.lockInterruptibly();
+        try {
+            while (control.isEmpty() && interactive.isEmpty() && bulk.isEmpty()) {
+                notEmpty.await();
+            }
+
+            if (batcher != null) {
+                long remaining = BATCH_LINGER_NANOS;
+                while (remaining > 0 && control.isEmpty() && interactive.size() + bulk.size() < MAX_BATCH) {
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+            }
+
+            drain(Lane.CONTROL, batch, MAX_BATCH);
+            if (bulk.isEmpty()) {
+                drain(Lane.INTERACTIVE, batch, MAX_BATCH - batch.size());
+            } else if (interactive.isEmpty()) {
+                drain(Lane.BULK, batch, BULK_ONLY_BATCH);
+            } else {
+                drain(Lane.INTERACTIVE, batch, INTERACTIVE_WEIGHT);
+                drain(Lane.BULK, batch, BULK_WEIGHT);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Apelat cu lock
+    private void drain(Lane lane, List<PendingPacket> batch, int max) {
+        ArrayDeque<PendingPacket> queue = lanes.get(lane);
+        int taken = 0;
+        while (taken < max && !queue.isEmpty()) {
+            batch.add(queue.pollFirst());
+            taken++;
+        }
+        if (taken > 0) notFull.get(lane).signalAll();
+    }
+
+    private void writeBatch(List<PendingPacket> batch) throws IOException {
+        List<PendingPacket> written = new ArrayList<>(batch.size());
+        List<PendingPacket> group = new ArrayList<>();
+        List<String> groupJson = new ArrayList<>();
+        int groupChars = 0;
+
+        for (PendingPacket pending : batch) {
+            ConnectionMetrics.record(ConnectionMetrics.Timer.SEND_QUEUE_WAIT, System.nanoTime() - pending.enqueuedAt);
+
+            try {
+                String json = batcher != null && pending.control == null
+                        ? batcher.batchable(pending.packet, pending.requestId, pending.clientId)
+                        : null;
+                if (json != null) {
+                    if (groupChars + json.length() > MAX_RECORD_CHARS) {
+                        writeGroup(group, groupJson, written);
+                        groupChars = 0;
+                    }
+                    group.add(pending);
+                    groupJson.add(json);
+                    groupChars += json.length();
+                    continue;
+                }
+            } catch (Exception e) {
+                Log.e("TCP", "Encode Error: " + e.getMessage());
+                pending.future.completeExceptionally(e);
+                continue;
+            }
+
+            // Ce nu intra in record pleaca dupa grupul de dinainte, ca sa pastram ordinea
+            writeGroup(group, groupJson, written);
+            groupChars = 0;
+
+            byte[] bytes;
+            try {
+                bytes = pending.control != null
+                        ? pending.control.call()
+                        : encoder.encode(pending.packet, pending.requestId, pending.clientId);
+            } catch (Exception e) {
+                Log.e("TCP", "Encode Error: " + e.getMessage());
+                pending.future.completeExceptionally(e);
+                continue;
+            }
+            out.write(bytes);
+            written.add(pending);
+        }
+        writeGroup(group, groupJson, written);
+        out.flush();
+
+        for (PendingPacket pending : written) {
+            pending.future.complete(null);
+        }
+    }
+
+    private void writeGroup(List<PendingPacket> group, List<String> groupJson, List<PendingPacket> written)
+            throws IOException {
+        if (group.isEmpty()) return;
+
+        byte[] record;
+        try {
+            List<NetworkPacket> packets = new ArrayList<>(group.size());
+            for (PendingPacket pending : group) packets.add(pending.packet);
+            record = batcher.seal(packets, groupJson);
+        } catch (Exception e) {
+            Log.e("TCP", "Encode Error: " + e.getMessage());
+            failAll(group, e);
+            group.clear();
+            groupJson.clear();
+            return;
+        }
+        out.write(record);
+        written.addAll(group);
+        group.clear();
+        groupJson.clear();
+    }
+
+    private static void failAll(List<PendingPacket> packets, Exception cause) {
+        for (PendingPacket pending : packets) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.tcpclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lista de optiuni negociata in handshake. Serverul o pune ca al treilea camp
+ * in KYBER_SERVER_HELLO ("kyber:ec:optiuni"), clientul raspunde cu ce accepta
+ * in KYBER_CLIENT_FINISH. Formatul e "nume,nume=valoare,...".
+ * Un server vechi nu trimite lista, deci nu se activeaza nimic.
+ */
+final class ProtocolFeatures {
+    static final String BINARY_FRAMING = "bin";
+    static final String COMPACT_BYTES = "b64";
+    static final String RESUME = "resume";
+    static final String HEARTBEAT = "hb";
+    static final String BATCH = "batch";
+    // Cifrurile tunelului, in ordinea preferata: "aead=chacha+aes". Se alege primul
+    // din lista clientului pe care il are si serverul; fara "aead" ramane AES-GCM
+    static final String AEAD = "aead";
+    // Chei noi pe tunel dupa un numar de record-uri, cu frame-uri KEY_UPDATE
+    static final String REKEY = "rekey";
+    // Cheie separata pe fiecare directie inca de la inceput (vezi TunnelRatchet), ca
+    // nonce-urile clientului si ale serverului sa nu poata cadea niciodata pe aceeasi cheie
+    static final String DIRECTIONAL_KEYS = "dirkeys";
+    // Compresie pe record in tunel; valoarea e versiunea dictionarului si trebuie sa fie aceeasi
+    static final String DEFLATE = "deflate";
+    // Istoric pe pagini (GET_MESSAGES_REQUEST cu ClientDtos.HistoryPageDto); serverul nu mai
+    // trimite tot istoricul la ENTER_CHAT
+    static final String PAGED_HISTORY = "page";
+    // Sincronizare incrementala a istoricului fata de cache-ul local (ClientDtos.HistorySyncDto)
+    static final String HISTORY_SYNC = "sync";
+    // Lista de chat-uri pe versiuni: GET_CHATS_REQUEST cu ClientDtos.ChatListSyncDto primeste doar diferenta
+    static final String CHAT_LIST_SYNC = "chatsync";
+    // Serverul ignora dublurile dupa clientId si confirma fiecare pachet din Outbox cu
+    // clientId-ul lui; doar atunci Outbox retrimite ce nu a fost confirmat
+    static final String OUTBOX_ACK = "ack";
+    // Trimis doar de server: nonce-ul pentru reluarea sesiunii, Base64
+    static final String SERVER_NONCE = "n";
+
+    private static final ProtocolFeatures NONE = new ProtocolFeatures(Collections.emptyMap());
+
+    private final Map<String, String> values;
+
+    private ProtocolFeatures(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static ProtocolFeatures none() {
+        return NONE;
+    }
+
+    static ProtocolFeatures parse(String list) {
+        if (list == null || list.isEmpty()) return NONE;
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String token : list.split(",")) {
+            token = token.trim();
+            if (token.isEmpty()) continue;
+
+            int eq = token.indexOf('=');
+            if (eq < 0) values.put(token, "");
+            else values.put(token.substring(0, eq), token.substring(eq + 1));
+        }
+        return new ProtocolFeatures(values);
+    }
+
+    static ProtocolFeatures clientOffer() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(BINARY_FRAMING, "");
+        values.put(COMPACT_BYTES, "");
+        values.put(RESUME, "");
+        values.put(HEARTBEAT, "");
+        values.put(BATCH, "");
+        values.put(REKEY, "");
+        values.put(DIRECTIONAL_KEYS, "");
+        values.put(DEFLATE, TunnelCompression.DICTIONARY_VERSION);
+        values.put(PAGED_HISTORY, "");
+        values.put(HISTORY_SYNC, "");
+        values.put(CHAT_LIST_SYNC, "");
+        values.put(OUTBOX_ACK, "");
+
+        StringBuilder ciphers = new StringBuilder();
+        for (AeadContext.Algorithm algorithm : AeadBenchmark.preferred()) {
+            if (ciphers.length() > 0) ciphers.append('+');
+            ciphers.append(algorithm.token);
+        }
+        values.put(AEAD, ciphers.toString());
+        return new ProtocolFeatures(values);
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    String get(String name) {
+        return values.get(name);
+    }
+
+    boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    ProtocolFeatures agreedWith(ProtocolFeatures server) {
+        Map<String, String> agreed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (!server.has(entry.getKey())) continue;
+
+            if (DEFLATE.equals(entry.getKey())) {
+                if (entry.getValue().equals(server.get(DEFLATE))) agreed.put(DEFLATE, entry.getValue());
+            } else if (AEAD.equals(entry.getKey())) {
+                String cipher = firstCommon(entry.getValue(), server.get(AEAD));
+                if (cipher != null) agreed.put(AEAD, cipher);
+            } else {
+                agreed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return agreed.isEmpty() ? NONE : new ProtocolFeatures(agreed);
+    }
+
+    AeadContext.Algorithm cipher() {
+        return AeadContext.Algorithm.fromToken(values.get(AEAD));
+    }
+
+    private static String firstCommon(String ours, String theirs) {
+        List<String> available = Arrays.asList(theirs.split("\\+"));
+        for (String token : ours.split("\\+")) {
+            if (available.contains(token)) return token;
+        }
+        return null;
+    }
+
+    String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(entry.getKey());
+            if (!entry.getValue().isEmpty()) sb.append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
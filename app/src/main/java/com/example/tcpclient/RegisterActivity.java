@@ -77,14 +77,11 @@ public class RegisterActivity extends AppCompatActivity {
             try {
                 TcpConnection.close();
 
-                TcpConnection.connect(config.getServerIp(), config.getServerPort());
-
                 ChatDtos.AuthDto registerData = new ChatDtos.AuthDto(username, password);
                 NetworkPacket request = new NetworkPacket(PacketType.REGISTER_REQUEST, 0, registerData);
 
-                TcpConnection.sendPacket(request);
-
-                NetworkPacket responsePacket = TcpConnection.readNextPacket();
+                InboundPacket responsePacket = TcpConnection.connectAndRequest(config.getServerIp(),
+                        config.getServerPort(), request, TcpConnection.DEFAULT_TIMEOUT_MS).get();
 
                 runOnUiThread(() -> {
                     view.setEnabled(true);
@@ -107,7 +104,7 @@ public class RegisterActivity extends AppCompatActivity {
         }).start();
     }
 
-    private void handleRegisterResponse(NetworkPacket packet, String userStr, String passStr, boolean save) {
+    private void handleRegisterResponse(InboundPacket packet, String userStr, String passStr, boolean save) {
         try {
             JsonElement payload = packet.getPayload();
 
@@ -117,6 +114,8 @@ public class RegisterActivity extends AppCompatActivity {
                 if (user != null && user.getUsername() != null) {
                     TcpConnection.setCurrentUser(user);
                     TcpConnection.setCurrentUserId(user.getId());
+                    ConnectionSupervisor.start(config.getServerIp(), config.getServerPort(),
+                            new ChatDtos.AuthDto(userStr, passStr));
 
                     SharedPreferences.Editor editor = preferences.edit();
                     if (save) {
@@ -11,6 +11,14 @@ import java.security.GeneralSecurityException;
 public class SecureStorage {
 
     public static SharedPreferences getEncryptedPrefs(Context context) {
+        return getEncryptedPrefs(context, "secure_chat_prefs", "fallback_prefs");
+    }
+
+    public static SharedPreferences getEncryptedPrefs(Context context, String fileName) {
+        return getEncryptedPrefs(context, fileName, fileName + "_fallback");
+    }
+
+    private static SharedPreferences getEncryptedPrefs(Context context, String fileName, String fallbackName) {
         try {
             MasterKey masterKey = new MasterKey.Builder(context)
                     .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
@@ -18,14 +26,14 @@ public class SecureStorage {
 
             return EncryptedSharedPreferences.create(
                     context,
-                    "secure_chat_prefs",
+                    fileName,
                     masterKey,
                     EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
                     EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
             );
         } catch (GeneralSecurityException | IOException e) {
             e.printStackTrace();
-            return context.getSharedPreferences("fallback_prefs", Context.MODE_PRIVATE);
+            return context.getSharedPreferences(fallbackName, Context.MODE_PRIVATE);
         }
     }
 }
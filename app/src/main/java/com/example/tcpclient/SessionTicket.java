@@ -0,0 +1,75 @@
+package com.example.tcpclient;
+
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tichet de reluare a sesiunii. Serverul il trimite prin tunel (frame TICKET)
+ * dupa un handshake reusit. La reconectare trimitem tichetul in loc de
+ * Kyber + ECDH si ambele parti deriva cheia noua din secretul tichetului si
+ * din doua nonce-uri proaspete. Tichetul e folosit o singura data: serverul
+ * raspunde la reluare cu unul nou.
+ */
+final class SessionTicket {
+    static final String RESUME_MARKER = "RESUME";
+
+    private static final long MAX_LIFETIME_MS = 24 * 60 * 60 * 1000L;
+
+    // Continutul frame-ului TICKET dupa decriptare
+    static final class Grant {
+        String ticket;
+        long lifetimeSeconds;
+    }
+
+    private static SessionTicket current;
+
+    final String server;
+    final byte[] ticket;
+    final byte[] resumptionSecret;
+    final long expiresAt;
+
+    private SessionTicket(String server, byte[] ticket, byte[] resumptionSecret, long expiresAt) {
+        this.server = server;
+        this.ticket = ticket;
+        this.resumptionSecret = resumptionSecret;
+        this.expiresAt = expiresAt;
+    }
+
+    static synchronized void store(String host, int port, SecretKey sessionKey, String grantJson) {
+        try {
+            Grant grant = PacketCodec.GSON.fromJson(grantJson, Grant.class);
+            if (grant == null || grant.ticket == null || grant.lifetimeSeconds <= 0) return;
+
+            long lifetimeMs = Math.min(grant.lifetimeSeconds * 1000L, MAX_LIFETIME_MS);
+            byte[] secret = TunnelKdf.hmac(sessionKey.getEncoded(), "tunnel-resumption");
+
+            current = new SessionTicket(host + ":" + port, Base64.decode(grant.ticket, Base64.NO_WRAP),
+                    secret, SystemClock.elapsedRealtime() + lifetimeMs);
+            Log.d("TCP", "Tichet de reluare primit, valabil " + (lifetimeMs / 1000) + "s");
+        } catch (Exception e) {
+            Log.e("TCP", "Tichet invalid: " + e.getMessage());
+        }
+    }
+
+    // Il scoatem la folosire: un tichet nu se trimite de doua ori
+    static synchronized SessionTicket take(String host, int port) {
+        SessionTicket ticket = current;
+        current = null;
+
+        if (ticket == null || !ticket.server.equals(host + ":" + port)) return null;
+        if (SystemClock.elapsedRealtime() >= ticket.expiresAt) return null;
+        return ticket;
+    }
+
+    static synchronized void clear() {
+        current = null;
+    }
+
+    SecretKey deriveSessionKey(byte[] serverNonce, byte[] clientNonce) throws Exception {
+        return new SecretKeySpec(TunnelKdf.hmac(resumptionSecret, "tunnel-resume", serverNonce, clientNonce), "AES");
+    }
+}
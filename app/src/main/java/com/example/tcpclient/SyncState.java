@@ -0,0 +1,25 @@
+package com.example.tcpclient;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Pana unde e sincronizata o colectie locala cu serverul. scope e de forma
+ * "chat:<id>"; lastId e cel mai nou id avut, cursor e marcajul de timp dat de
+ * server la ultima sincronizare (editari/stergeri de dupa el). reachedStart
+ * spune ca primul mesaj al colectiei e deja local, deci paginile mai vechi nu
+ * mai trebuie cerute de la server.
+ */
+@Entity(tableName = "sync_state")
+public class SyncState {
+    @PrimaryKey
+    @NonNull
+    public String scope = "";
+
+    public int lastId;
+
+    public long cursor;
+
+    public boolean reachedStart;
+}
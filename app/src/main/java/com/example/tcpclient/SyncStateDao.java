@@ -0,0 +1,21 @@
+package com.example.tcpclient;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+@Dao
+public interface SyncStateDao {
+    @Query("SELECT * FROM sync_state WHERE scope = :scope")
+    SyncState get(String scope);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void save(SyncState state);
+
+    @Query("DELETE FROM sync_state WHERE scope = :scope")
+    void delete(String scope);
+
+    @Query("DELETE FROM sync_state")
+    void clearAll();
+}
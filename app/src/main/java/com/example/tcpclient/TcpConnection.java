@@ -3,18 +3,43 @@ package com.example.tcpclient;
 import android.util.Base64;
 import android.util.Log;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.google.gson.stream.JsonReader;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PublicKey;
-import java.security.Security;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SecretKey;
 
@@ -32,89 +57,274 @@ public class TcpConnection {
     private static int currentUserId;
 
     private static SecretKey sessionKey = null;
+    // Cipher-ele tunelului pe cele doua directii, refolosite pana la urmatorul rekey
+    private static volatile TunnelRatchet tunnel = null;
+    private static volatile TunnelCompression compression = null;
+    private static volatile ProtocolFeatures features = ProtocolFeatures.none();
 
-    static {
-        Security.removeProvider("BC");
-        Security.addProvider(new BouncyCastleProvider());
-    }
+    public static final long DEFAULT_TIMEOUT_MS = 10_000;
+
+    private static class PendingRequest {
+        final int id;
+        final PacketType expectedType;
+        final CompletableFuture<InboundPacket> future = new CompletableFuture<>();
 
-    public interface PacketListener {
-        void onPacketReceived(NetworkPacket packet);
+        PendingRequest(int id, PacketType expectedType) {
+            this.id = id;
+            this.expectedType = expectedType;
+        }
     }
 
-    private static PacketListener currentListener;
+    private static final AtomicInteger nextRequestId = new AtomicInteger();
+    private static final Map<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private static final ExecutorService handshakeExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "tcp-handshake");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tcp-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
     private static Thread readingThread;
     private static volatile boolean isReading = false;
 
-    public static void setPacketListener(PacketListener listener) {
-        currentListener = listener;
-        Log.d("TCP", "Listener setat: " + (listener == null ? "NULL" : listener.getClass().getSimpleName()));
-    }
-
     public static void startReading() {
         if (isReading) return;
         isReading = true;
 
+        // Un thread vechi care iese tarziu nu are voie sa inchida conexiunea noua
+        Socket readingSocket = socket;
+
         readingThread = new Thread(() -> {
             Log.d("TCP", "Listener Thread PORNIT.");
             try {
-                while (isReading && socket != null && !socket.isClosed()) {
-                    NetworkPacket packet = readNextPacket();
+                while (isReading && socket == readingSocket && socket != null && !socket.isClosed()) {
+                    InboundPacket packet;
+                    try {
+                        packet = readNextPacket();
+                    } catch (SocketTimeoutException e) {
+                        if (onSilence(readingSocket)) continue;
+                        Log.e("TCP", "Nici un raspuns la proba, legatura moarta.");
+                        connectionLost(readingSocket);
+                        break;
+                    }
+                    if (silenceProbe) endSilenceProbe(readingSocket);
 
                     if (packet == null) {
                         Log.e("TCP", "Pachet NULL. Conexiune moarta.");
-                        close();
+                        connectionLost(readingSocket);
                         break;
                     }
 
-                    if (currentListener != null) {
-                        currentListener.onPacketReceived(packet);
-                    } else {
-                        Log.w("TCP", "Pachet ignorat (niciun listener activ): " + packet.getType());
+                    if (ConnectionSupervisor.isDuplicate(packet)) {
+                        Log.d("TCP", "Pachet duplicat ignorat: " + packet);
+                        continue;
+                    }
+
+                    Outbox.onInbound(packet);
+
+                    if (completePendingRequest(packet)) {
+                        continue;
                     }
+
+                    PacketDispatcher.dispatch(packet);
                 }
             } catch (Exception e) {
                 Log.e("TCP", "Eroare Reading Thread: " + e.getMessage());
-                close();
+                connectionLost(readingSocket);
             }
         });
         readingThread.start();
     }
 
+    private static synchronized void connectionLost(Socket readingSocket) {
+        // Inchisa de noi (logout, login nou): nu e o pierdere
+        if (!isReading || socket != readingSocket) return;
+        close();
+        ConnectionSupervisor.onConnectionLost();
+    }
+
     public static void stopReading() {
         isReading = false;
     }
 
     public static void connect(String host, int port) throws Exception {
-        socket = new Socket(host, port);
-//        out = new ObjectOutputStream(socket.getOutputStream());
-//        out.flush();
-//        in = new ObjectInputStream(socket.getInputStream());
+        establish(host, port, null, 0);
+        startReading();
+    }
 
-        socket.setTcpNoDelay(true);
+    // Apelat de ecranul de conversatie: cat e deschis, heartbeat-ul e mai des
+    public static void setActive(boolean isActive) {
+        active = isActive;
+        Heartbeat current = heartbeat;
+        if (current != null) current.setActive(isActive);
+        else if (readTimeoutFallback && !silenceProbe) setReadTimeout(socket, silenceTimeoutMs());
+    }
+
+    // RTT netezit si variatia lui, -1 daca nu avem heartbeat sau inca nicio masuratoare
+    public static long getSmoothedRttMs() {
+        Heartbeat current = heartbeat;
+        return current != null ? current.getSmoothedRttMs() : -1;
+    }
 
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    public static long getRttJitterMs() {
+        Heartbeat current = heartbeat;
+        return current != null ? current.getJitterMs() : -1;
+    }
 
-        if (!performHandshake()) {
+    /**
+     * Conectare + prima cerere (LOGIN/REGISTER) in acelasi drum: cererea pleaca
+     * criptata in acelasi flush cu KYBER_CLIENT_FINISH, deci raspunsul vine cu o
+     * calatorie dus-intors mai devreme. Serverele fara optiuni o primesc separat, dupa handshake.
+     */
+    public static CompletableFuture<InboundPacket> connectAndRequest(String host, int port,
+                                                                     NetworkPacket first, long timeoutMs) throws Exception {
+        int id = nextRequestId.incrementAndGet();
+        boolean pipelined = establish(host, port, first, id);
+
+        // Inregistrat dupa handshake: close() din fallback-ul de reluare nu trebuie sa o pice
+        PendingRequest pending = track(id, first, timeoutMs);
+        if (!pipelined) {
+            enqueue(first, id).whenComplete((ignored, error) -> {
+                if (error != null) failRequest(id, error);
+            });
+        }
+        startReading();
+        return pending.future;
+    }
+
+    private static boolean establish(String host, int port, NetworkPacket early, int earlyId) throws Exception {
+        currentHost = host;
+        currentPort = port;
+
+        // De obicei gata de la pornirea aplicatiei; altfel asteptam aici, nu pe UI thread
+        CryptoInit.awaitReady();
+
+        // Cheile EC se genereaza cat timp asteptam conectarea si hello-ul
+        EphemeralKeyPool.prefill();
+        // Prima conectare porneste masuratoarea; pana termina, oferta are AES primul
+        AeadBenchmark.runAsync();
+
+        SessionTicket ticket = SessionTicket.take(host, port);
+        openSocket(host, port);
+        boolean ok = performHandshake(ticket, early, earlyId);
+
+        if (!ok && ticket != null) {
+            // Tichet refuzat (expirat, server repornit): handshake complet pe un socket nou
+            Log.w("TCP", "Reluare sesiune esuata, refac handshake-ul complet.");
+            close();
+            openSocket(host, port);
+            ok = performHandshake(null, early, earlyId);
+        }
+
+        if (!ok) {
             close();
             throw new Exception("Handshake Server Esuat!");
         }
+
+        boolean batching = isBinaryFraming() && features.has(ProtocolFeatures.BATCH);
+        writer = new PacketWriter(out, TcpConnection::encodeForWire, batching ? BATCHER : null);
+
+        if (isBinaryFraming() && features.has(ProtocolFeatures.HEARTBEAT)) {
+            Socket connected = socket;
+            heartbeat = new Heartbeat(body -> sendControl(FrameCodec.KIND_PING, body),
+                    () -> connectionLost(connected));
+            heartbeat.start(active);
+        } else {
+            // Fara PING/PONG (servere vechi, SECURE_ENVELOPE): timeout de citire, vezi onSilence
+            readTimeoutFallback = true;
+            setReadTimeout(socket, silenceTimeoutMs());
+        }
+        return early != null && !features.isEmpty();
+    }
+
+    /**
+     * Fara heartbeat un socket pe jumatate deschis ar astepta pana il inchide sistemul.
+     * Dupa 2 intervale de heartbeat fara niciun octet primit trimitem o cerere mica la care
+     * orice server raspunde (GET_CHATS_REQUEST, raspunsul nu ajunge la ecrane); daca nici
+     * in DEFAULT_TIMEOUT_MS nu vine nimic, legatura e moarta. Un server tacut dar viu
+     * costa doar o lista de chat-uri la cateva minute.
+     */
+    private static boolean onSilence(Socket readingSocket) {
+        if (silenceProbe) return false;
+
+        Log.w("TCP", "Liniste pe conexiune, trimit o proba.");
+        silenceProbe = true;
+        setReadTimeout(readingSocket, DEFAULT_TIMEOUT_MS);
+        request(new NetworkPacket(PacketType.GET_CHATS_REQUEST, currentUserId), DEFAULT_TIMEOUT_MS)
+                .exceptionally(error -> null);
+        return true;
     }
 
-    private static PrintWriter out;
-    private static BufferedReader in;
+    private static void endSilenceProbe(Socket readingSocket) {
+        silenceProbe = false;
+        setReadTimeout(readingSocket, silenceTimeoutMs());
+    }
+
+    private static int silenceTimeoutMs() {
+        return (int) (2 * (active ? Heartbeat.activeIntervalMs : Heartbeat.idleIntervalMs));
+    }
+
+    private static void setReadTimeout(Socket target, long timeoutMs) {
+        if (target == null) return;
+        try {
+            target.setSoTimeout((int) timeoutMs);
+        } catch (SocketException e) {
+            Log.w("TCP", "Nu pot seta timeout-ul de citire: " + e.getMessage());
+        }
+    }
+
+    // La logout: fara tichet de reluare si fara reconectare automata
+    public static void forgetSession() {
+        SessionTicket.clear();
+        ConnectionSupervisor.stop();
+    }
+
+    private static void openSocket(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+//        out = new ObjectOutputStream(socket.getOutputStream());
+//        out.flush();
+//        in = new ObjectInputStream(socket.getInputStream());
+
+        socket.setTcpNoDelay(true);
 
-    private static boolean performHandshake() {
+        out = new BufferedOutputStream(socket.getOutputStream());
+        received = new CountingInputStream(socket.getInputStream());
+        in = new DataInputStream(new BufferedInputStream(received));
+    }
+
+    private static OutputStream out;
+    private static DataInputStream in;
+    // Octetii cititi de pe socket; in modul vechi marimea unui pachet e diferenta fata de cel anterior
+    private static CountingInputStream received;
+    private static long receivedMark = 0;
+    private static JsonReader jsonIn;
+    // Pachetele ramase dintr-un record BATCH, livrate inaintea urmatorului frame
+    private static final Deque<InboundPacket> inboundBatch = new ConcurrentLinkedDeque<>();
+    private static volatile PacketWriter writer;
+    private static volatile Heartbeat heartbeat;
+    // Fara heartbeat: timeout de citire si o cerere de proba dupa liniste (onSilence)
+    private static volatile boolean readTimeoutFallback = false;
+    private static volatile boolean silenceProbe = false;
+    private static volatile boolean active = false;
+    private static String currentHost;
+    private static int currentPort;
+
+    private static boolean performHandshake(SessionTicket ticket, NetworkPacket early, int earlyId) {
         try {
             Log.d("TCP", "Start Handshake...");
+            long tStart = System.nanoTime();
 
 //            String jsonHello = (String) in.readObject();
 
-            String jsonHello = in.readLine();
+            String jsonHello = FrameCodec.readLine(in);
             if(jsonHello==null){
                 return false;
             }
+            ConnectionMetrics.record(ConnectionMetrics.Timer.HANDSHAKE_HELLO_WAIT, System.nanoTime() - tStart);
 
             NetworkPacket helloPacket = NetworkPacket.fromJson(jsonHello);
 
@@ -122,38 +332,69 @@ public class TcpConnection {
                 String payload = helloPacket.getPayload().getAsString();
                 String[] parts = payload.split(":");
 
+                // Serverele vechi nu trimit optiuni si nu primesc nimic in plus
+                ProtocolFeatures serverFeatures = ProtocolFeatures.parse(parts.length > 2 ? parts[2] : null);
+
+                if (ticket != null && serverFeatures.has(ProtocolFeatures.RESUME)
+                        && serverFeatures.has(ProtocolFeatures.BINARY_FRAMING)
+                        && serverFeatures.has(ProtocolFeatures.SERVER_NONCE)) {
+                    return resumeSession(ticket, serverFeatures, early, earlyId, tStart);
+                }
+
                 byte[] serverKyberBytes = Base64.decode(parts[0], Base64.NO_WRAP);
                 byte[] serverECBytes    = Base64.decode(parts[1], Base64.NO_WRAP);
 
-                // 1. Kyber
-                PublicKey serverKyberPub = CryptoHelper.decodeKyberPublicKey(serverKyberBytes);
-                CryptoHelper.KEMResult kyberRes = CryptoHelper.encapsulate(serverKyberPub);
-
-                // 2. ECDH
-                KeyPair myECPair = CryptoHelper.generateECKeys();
+                // 1. Kyber, in paralel cu ECDH
+                Future<CryptoHelper.KEMResult> kyberTask = handshakeExecutor.submit(() -> {
+                    long t = System.nanoTime();
+                    CryptoHelper.KEMResult result = CryptoHelper.encapsulate(CryptoHelper.decodeKyberPublicKey(serverKyberBytes));
+                    ConnectionMetrics.record(ConnectionMetrics.Timer.HANDSHAKE_KYBER, System.nanoTime() - t);
+                    return result;
+                });
+
+                // 2. ECDH, cu o pereche generata din timp
+                long tEcdh = System.nanoTime();
+                KeyPair myECPair = EphemeralKeyPool.take();
                 PublicKey serverECPub = CryptoHelper.decodeECPublicKey(serverECBytes);
                 byte[] ecSecret = CryptoHelper.doECDH(myECPair.getPrivate(), serverECPub);
+                ConnectionMetrics.record(ConnectionMetrics.Timer.HANDSHAKE_ECDH, System.nanoTime() - tEcdh);
+
+                CryptoHelper.KEMResult kyberRes;
+                try {
+                    kyberRes = kyberTask.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
 
                 // 3. Combine (KDF)
-                sessionKey = CryptoHelper.combineSecrets(ecSecret, kyberRes.aesKey.getEncoded());
+                SecretKey combined = CryptoHelper.combineSecrets(ecSecret, kyberRes.aesKey.getEncoded());
 
-                // 4. Raspuns: KyberCipher:MyECPub
+                // 4. Raspuns: KyberCipher:MyECPub[:Optiuni]
                 String kyberCipherB64 = Base64.encodeToString(kyberRes.wrappedKey, Base64.NO_WRAP);
                 String myECPubB64     = Base64.encodeToString(myECPair.getPublic().getEncoded(), Base64.NO_WRAP);
 
                 String responsePayload = kyberCipherB64 + ":" + myECPubB64;
 
+                ProtocolFeatures agreed = ProtocolFeatures.none();
+                if (!serverFeatures.isEmpty()) {
+                    ProtocolFeatures offer = ProtocolFeatures.clientOffer();
+                    agreed = offer.agreedWith(serverFeatures);
+                    responsePayload += ":" + offer.format();
+                }
+
                 NetworkPacket finishPacket = new NetworkPacket(PacketType.KYBER_CLIENT_FINISH, 0, responsePayload);
 
 //                out.writeObject(finishPacket.toJson());
 //                out.flush();
 
-                synchronized (out) {
-                    out.println(finishPacket.toJson());
-                    out.flush();
-                }
+                setSessionKey(combined, agreed);
+                features = agreed;
+                PacketCodec.setCompactBytes(agreed.has(ProtocolFeatures.COMPACT_BYTES));
+                writeFinish(finishPacket, early, earlyId);
 
-                Log.d("TCP", "Handshake OK! Tunel AES activ.");
+                long total = System.nanoTime() - tStart;
+                ConnectionMetrics.record(ConnectionMetrics.Timer.HANDSHAKE_TOTAL, total);
+                Log.d("TCP", "Handshake OK in " + (total / 1_000_000) + "ms! Tunel " + tunnel.getAlgorithm().token + " activ. Optiuni: " + agreed);
                 return true;
             }
             return false;
@@ -163,59 +404,55 @@ public class TcpConnection {
         }
     }
 
-//private static boolean performHandshake() {
-//    try {
-//        // ⏱️ START CRONOMETRU
-//        long tStart = System.currentTimeMillis();
-//        Log.d("TIMER_KYBER", "--- START HANDSHAKE ---");
-//
-//        // 1. Asteptam Hello de la Server
-//        String jsonHello = in.readLine();
-//        if (jsonHello == null) return false;
-//
-//        // ⏱️ Checkpoint 1: Cat a durat sa vina pachetul
-//        long tRecvHello = System.currentTimeMillis();
-//        Log.d("TIMER_KYBER", "1. Primit Server Hello in: " + (tRecvHello - tStart) + "ms");
-//
-//        NetworkPacket helloPacket = NetworkPacket.fromJson(jsonHello);
-//
-//        if (helloPacket.getType() == PacketType.KYBER_SERVER_HELLO) {
-//            String serverPubBase64 = helloPacket.getPayload().getAsString();
-//            byte[] serverPubBytes = Base64.decode(serverPubBase64, Base64.NO_WRAP);
-//
-//            // --- MATEMATICA KYBER ---
-//            PublicKey serverKyberPub = CryptoHelper.decodeKyberPublicKey(serverPubBytes);
-//            CryptoHelper.KEMResult result = CryptoHelper.encapsulate(serverKyberPub);
-//
-//            sessionKey = result.aesKey;
-//
-//            // ⏱️ Checkpoint 2: Cat a durat matematica (Encapsulate)
-//            long tMath = System.currentTimeMillis();
-//            Log.d("TIMER_KYBER", "2. Kyber Encapsulate (Matematica) a durat: " + (tMath - tRecvHello) + "ms");
-//
-//            byte[] wrappedBytes = result.wrappedKey;
-//            String wrappedBase64 = Base64.encodeToString(wrappedBytes, Base64.NO_WRAP);
-//            NetworkPacket finishPacket = new NetworkPacket(PacketType.KYBER_CLIENT_FINISH, 0, wrappedBase64);
-//
-//            // Trimitem raspunsul
-//            synchronized (out) {
-//                out.println(finishPacket.toJson());
-//                out.flush();
-//            }
-//
-//            // ⏱️ FINAL
-//            long tEnd = System.currentTimeMillis();
-//            Log.d("TIMER_KYBER", "3. Trimis raspuns. GATA.");
-//            Log.d("TIMER_KYBER", "🔥 TIMP TOTAL HANDSHAKE: " + (tEnd - tStart) + "ms 🔥");
-//
-//            return true;
-//        }
-//        return false;
-//    } catch (Exception e) {
-//        e.printStackTrace();
-//        return false;
-//    }
-//}
+    /**
+     * Reluare cu tichet in loc de Kyber + ECDH. Trimitem RESUME:tichet:nonceClient:optiuni,
+     * cheia noua e HMAC(secretTichet, nonceServer + nonceClient). Serverul confirma
+     * cu un tichet nou sigilat deja cu cheia noua; orice altceva inseamna refuz.
+     */
+    private static boolean resumeSession(SessionTicket ticket, ProtocolFeatures serverFeatures,
+                                         NetworkPacket early, int earlyId, long tStart) throws Exception {
+        byte[] serverNonce = Base64.decode(serverFeatures.get(ProtocolFeatures.SERVER_NONCE), Base64.NO_WRAP);
+        byte[] clientNonce = new byte[32];
+        new SecureRandom().nextBytes(clientNonce);
+
+        ProtocolFeatures offer = ProtocolFeatures.clientOffer();
+        String responsePayload = SessionTicket.RESUME_MARKER
+                + ":" + Base64.encodeToString(ticket.ticket, Base64.NO_WRAP)
+                + ":" + Base64.encodeToString(clientNonce, Base64.NO_WRAP)
+                + ":" + offer.format();
+
+        ProtocolFeatures agreed = offer.agreedWith(serverFeatures);
+        SecretKey resumedKey = ticket.deriveSessionKey(serverNonce, clientNonce);
+        setSessionKey(resumedKey, agreed);
+        features = agreed;
+        PacketCodec.setCompactBytes(agreed.has(ProtocolFeatures.COMPACT_BYTES));
+
+        NetworkPacket finishPacket = new NetworkPacket(PacketType.KYBER_CLIENT_FINISH, 0, responsePayload);
+        writeFinish(finishPacket, early, earlyId);
+
+        FrameCodec.Frame frame = FrameCodec.read(in);
+        if (frame == null || frame.kind != FrameCodec.KIND_TICKET) {
+            return false;
+        }
+        // Daca serverul a derivat alta cheie, decriptarea pica aici
+        String grantJson = openFrame(frame);
+        SessionTicket.store(currentHost, currentPort, resumedKey, grantJson);
+
+        long total = System.nanoTime() - tStart;
+        ConnectionMetrics.record(ConnectionMetrics.Timer.HANDSHAKE_RESUME, total);
+        Log.d("TCP", "Sesiune reluata cu tichet in " + (total / 1_000_000) + "ms. Optiuni: " + agreed);
+        return true;
+    }
+
+    // Cererea timpurie merge doar la serverele care negociaza optiuni: ele citesc
+    // finish-ul fara buffer propriu si trec imediat pe tunel
+    private static void writeFinish(NetworkPacket finishPacket, NetworkPacket early, int earlyId) throws Exception {
+        out.write(toLine(finishPacket.toJson()));
+        if (early != null && !features.isEmpty()) {
+            out.write(encodeForWire(early, earlyId, null));
+        }
+        out.flush();
+    }
 
     private static boolean isExemptFromTunnel(PacketType type) {
         return type == PacketType.SEND_MESSAGE ||
@@ -225,58 +462,348 @@ public class TcpConnection {
                 type == PacketType.DELETE_MESSAGE_BROADCAST;
     }
 
-    public static void sendPacket(NetworkPacket packet) {
-        new Thread(() -> {
-            try {
-                if (socket != null && !socket.isClosed()) {
-
-                    if (sessionKey != null && !isExemptFromTunnel(packet.getType())) {
-                        String clearJson = packet.toJson();
-                        byte[] encryptedBytes = CryptoHelper.encryptAndPack(sessionKey, clearJson);
-                        String encryptedBase64 = Base64.encodeToString(encryptedBytes, Base64.NO_WRAP);
-
-                        NetworkPacket envelope = new NetworkPacket(PacketType.SECURE_ENVELOPE, currentUserId, encryptedBase64);
-
-                        synchronized (out) {
-//                            out.writeObject(envelope.toJson());
-//                            out.flush();
-
-                            out.println(envelope.toJson());
-                            out.flush();
-                        }
-                    } else {
-                        synchronized (out) {
-//                            out.writeObject(packet.toJson());
-//                            out.flush();
-
-                            out.println(packet.toJson());
-                            out.flush();
-                        }
-                    }
+    /**
+     * Fiecare pachet primeste un id propriu, pastrat si la retrimitere, ca serverul
+     * sa poata recunoaste dublurile. Cat timp suntem offline dupa login, pachetul
+     * asteapta in ConnectionSupervisor si pleaca dupa reconectare.
+     */
+    public static CompletableFuture<Void> sendPacket(NetworkPacket packet) {
+        int id = nextRequestId.incrementAndGet();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!ConnectionSupervisor.holdIfOffline(packet, id, future)) {
+            transmit(packet, id, future);
+        }
+        return future;
+    }
+
+    static void transmit(NetworkPacket packet, int id, CompletableFuture<Void> future) {
+        enqueue(packet, id).whenComplete((ignored, error) -> {
+            if (error == null) {
+                future.complete(null);
+            } else if (!ConnectionSupervisor.holdAfterFailure(packet, id, future)) {
+                future.completeExceptionally(error);
+            }
+        });
+    }
+
+    /**
+     * Trimite o cerere si asteapta raspunsul ei. Raspunsul e recunoscut dupa requestId,
+     * iar la serverele care nu-l intorc, dupa tipul asteptat (XXX_REQUEST -> XXX_RESPONSE),
+     * in ordinea in care au plecat cererile. Raspunsurile nu mai ajung la PacketDispatcher.
+     */
+    public static CompletableFuture<InboundPacket> request(NetworkPacket packet, long timeoutMs) {
+        int id = nextRequestId.incrementAndGet();
+        PendingRequest pending = track(id, packet, timeoutMs);
+
+        enqueue(packet, id).whenComplete((ignored, error) -> {
+            if (error != null) failRequest(id, error);
+        });
+        return pending.future;
+    }
+
+    private static PendingRequest track(int id, NetworkPacket packet, long timeoutMs) {
+        PendingRequest pending = new PendingRequest(id, PacketCodec.responseTypeFor(packet.getType()));
+        pendingRequests.put(id, pending);
+
+        timeouts.schedule(() -> failRequest(id, new TimeoutException("Fara raspuns la " + packet.getType())),
+                timeoutMs, TimeUnit.MILLISECONDS);
+        return pending;
+    }
+
+    static boolean hasFeature(String name) {
+        return features.has(name);
+    }
+
+    public static boolean isConnected() {
+        Socket current = socket;
+        return writer != null && current != null && !current.isClosed();
+    }
+
+    static int newPacketId() {
+        return nextRequestId.incrementAndGet();
+    }
+
+    // Pentru Outbox: fara coada din ConnectionSupervisor, pachetul ramane pe disc pana la scriere
+    // sau, cu "ack", pana il confirma serverul
+    static CompletableFuture<Void> sendDurable(NetworkPacket packet, int packetId, String clientId) {
+        return enqueue(packet, packetId, clientId);
+    }
+
+    private static CompletableFuture<Void> enqueue(NetworkPacket packet, int requestId) {
+        return enqueue(packet, requestId, null);
+    }
+
+    private static CompletableFuture<Void> enqueue(NetworkPacket packet, int requestId, String clientId) {
+        PacketWriter currentWriter = writer;
+        if (currentWriter == null || socket == null || socket.isClosed()) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("Socket inchis"));
+            return failed;
+        }
+        return currentWriter.enqueue(packet, requestId, clientId);
+    }
+
+    private static boolean completePendingRequest(InboundPacket packet) {
+        PendingRequest match = null;
+
+        if (packet.getRequestId() != 0) {
+            match = pendingRequests.get(packet.getRequestId());
+        } else {
+            for (PendingRequest pending : pendingRequests.values()) {
+                if (pending.expectedType == packet.getType() && (match == null || pending.id < match.id)) {
+                    match = pending;
                 }
-            } catch (Exception e) {
-                Log.e("TCP", "Send Error: " + e.getMessage());
             }
-        }).start();
+        }
+
+        if (match == null || !pendingRequests.remove(match.id, match)) {
+            return false;
+        }
+        match.future.complete(packet);
+        return true;
     }
 
-    public static NetworkPacket readNextPacket() throws Exception {
-//        String jsonRaw = (String) in.readObject();
-        String jsonRaw = in.readLine();
-        if(jsonRaw==null){
-            return null;
+    private static void failRequest(int id, Throwable error) {
+        PendingRequest pending = pendingRequests.remove(id);
+        if (pending != null) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+
+    private static boolean isBinaryFraming() {
+        return sessionKey != null && features.has(ProtocolFeatures.BINARY_FRAMING);
+    }
+
+    // Pachetele tunelate din acelasi lot de scriere pleaca intr-un singur record BATCH
+    private static final PacketWriter.Batcher BATCHER = new PacketWriter.Batcher() {
+        @Override
+        public String batchable(NetworkPacket packet, int requestId, String clientId) throws Exception {
+            if (!isBinaryFraming() || isExemptFromTunnel(packet.getType())) return null;
+
+            // Octetii se numara in seal, dupa compresie si sigilare
+            return PacketCodec.toJson(packet, requestId, clientId);
+        }
+
+        @Override
+        public byte[] seal(List<NetworkPacket> packets, List<String> json) throws Exception {
+            // Nu comprimam record-uri facute mai ales din mesaje deja criptate end-to-end,
+            // nici pe cele care contin un secret, oricat de mic ar fi restul lotului
+            int opaqueChars = 0;
+            int totalChars = 0;
+            boolean secret = false;
+            for (int i = 0; i < json.size(); i++) {
+                PacketType type = packets.get(i).getType();
+                totalChars += json.get(i).length();
+                if (hasEncryptedBody(type)) opaqueChars += json.get(i).length();
+                secret |= carriesSecret(type);
+            }
+            boolean compressible = !secret && opaqueChars * 2 < totalChars;
+
+            byte[] record;
+            if (json.size() == 1) {
+                record = sealFrame(FrameCodec.KIND_SEALED, json.get(0), compressible);
+            } else {
+                StringBuilder array = new StringBuilder().append('[');
+                for (int i = 0; i < json.size(); i++) {
+                    if (i > 0) array.append(',');
+                    array.append(json.get(i));
+                }
+                array.append(']');
+                record = sealFrame(FrameCodec.KIND_BATCH, array.toString(), compressible);
+            }
+
+            List<PacketType> types = new ArrayList<>(packets.size());
+            int[] weights = new int[json.size()];
+            for (int i = 0; i < json.size(); i++) {
+                types.add(packets.get(i).getType());
+                weights[i] = json.get(i).length();
+            }
+            ConnectionMetrics.recordSent(types, weights, record.length);
+            return record;
+        }
+    };
+
+    private static byte[] encodeForWire(NetworkPacket packet, int requestId, String clientId) throws Exception {
+        byte[] bytes = encodePacket(packet, requestId, clientId);
+        ConnectionMetrics.recordSent(packet.getType(), bytes.length);
+        return bytes;
+    }
+
+    private static byte[] encodePacket(NetworkPacket packet, int requestId, String clientId) throws Exception {
+        if (isBinaryFraming()) {
+            String json = PacketCodec.toJson(packet, requestId, clientId);
+            if (isExemptFromTunnel(packet.getType())) {
+                return FrameCodec.encode(FrameCodec.KIND_PLAIN, json.getBytes(StandardCharsets.UTF_8));
+            }
+            PacketType type = packet.getType();
+            return sealFrame(FrameCodec.KIND_SEALED, json, !hasEncryptedBody(type) && !carriesSecret(type));
+        }
+
+        if (sessionKey != null && !isExemptFromTunnel(packet.getType())) {
+            String clearJson = PacketCodec.toJson(packet, requestId, clientId);
+            byte[] encryptedBytes = seal(clearJson.getBytes(StandardCharsets.UTF_8));
+            String encryptedBase64 = Base64.encodeToString(encryptedBytes, Base64.NO_WRAP);
+
+            NetworkPacket envelope = new NetworkPacket(PacketType.SECURE_ENVELOPE, currentUserId, encryptedBase64);
+            return toLine(envelope.toJson());
+        }
+        return toLine(PacketCodec.toJson(packet, requestId, clientId));
+    }
+
+    // Continutul e ciphertext cu cheia chat-ului, compresia nu castiga nimic
+    private static boolean hasEncryptedBody(PacketType type) {
+        switch (type) {
+            case SEND_MESSAGE:
+            case RECEIVE_MESSAGE:
+            case EDIT_MESSAGE_REQUEST:
+            case EDIT_MESSAGE_BROADCAST:
+            case GET_MESSAGES_RESPONSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Parole si chei: marimea dupa compresie ar spune ceva despre ele (CRIME/BREACH),
+    // mai ales cand stau in acelasi record cu text pe care il controleaza altcineva
+    private static boolean carriesSecret(PacketType type) {
+        if (type == null) return false;
+        switch (type) {
+            case LOGIN_REQUEST:
+            case REGISTER_REQUEST:
+            case EXCHANGE_SESSION_KEY:
+            case EXCHANGE_VOICE_KEY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void setSessionKey(SecretKey key, ProtocolFeatures agreed) throws Exception {
+        TunnelCompression previous = compression;
+        compression = key != null && agreed.has(ProtocolFeatures.DEFLATE) && agreed.has(ProtocolFeatures.BINARY_FRAMING)
+                ? new TunnelCompression()
+                : null;
+        if (previous != null) retireCompression(previous);
+
+        sessionKey = key;
+        // KEY_UPDATE e un frame, deci rekey doar cu framing binar
+        tunnel = key != null
+                ? new TunnelRatchet(key, agreed.cipher(),
+                        agreed.has(ProtocolFeatures.REKEY) && agreed.has(ProtocolFeatures.BINARY_FRAMING),
+                        agreed.has(ProtocolFeatures.DIRECTIONAL_KEYS))
+                : null;
+    }
+
+    // Writer-ul poate fi inca in sealFrame cu instanta veche: o inchidem pe thread-ul lui,
+    // dupa frame-ul in curs. Si daca writer-ul se opreste, coada e golita tot pe thread-ul lui
+    private static void retireCompression(TunnelCompression previous) {
+        PacketWriter currentWriter = writer;
+        if (currentWriter == null) {
+            previous.end();
+            return;
+        }
+        currentWriter.enqueueControl(() -> new byte[0]).whenComplete((ok, e) -> previous.end());
+    }
+
+    // Un frame sigilat, precedat de KEY_UPDATE cand cheia de trimitere trebuie schimbata
+    // Textul e comprimat inainte de sigilare daca e destul de mare si compresia e negociata
+    private static byte[] sealFrame(byte kind, String json, boolean compressible) throws Exception {
+        TunnelRatchet ctx = tunnel;
+        if (ctx == null) throw new IOException("Tunel inchis");
+
+        byte[] plain = json.getBytes(StandardCharsets.UTF_8);
+        TunnelCompression z = compression;
+        if (z != null && compressible && plain.length >= TunnelCompression.MIN_SIZE) {
+            byte[] packed = z.compress(plain);
+            if (packed != null) {
+                plain = packed;
+                kind |= FrameCodec.FLAG_COMPRESSED;
+            }
+        }
+
+        byte[] update = ctx.rekeyIfDue();
+        byte[] frame = FrameCodec.encode(kind, seal(plain));
+        if (update == null) return frame;
+
+        Log.d("TCP", "Cheie noua de trimitere pe tunel.");
+        byte[] updateFrame = FrameCodec.encode(FrameCodec.KIND_KEY_UPDATE, update);
+        byte[] both = new byte[updateFrame.length + frame.length];
+        System.arraycopy(updateFrame, 0, both, 0, updateFrame.length);
+        System.arraycopy(frame, 0, both, updateFrame.length, frame.length);
+        return both;
+    }
+
+    private static byte[] seal(byte[] plain) throws Exception {
+        TunnelRatchet ctx = tunnel;
+        if (ctx == null) throw new IOException("Tunel inchis");
+        long t = System.nanoTime();
+        byte[] sealed = ctx.seal(plain);
+        ConnectionMetrics.record(ConnectionMetrics.Timer.ENCRYPT, System.nanoTime() - t);
+        return sealed;
+    }
+
+    private static String unseal(byte[] sealed) throws Exception {
+        return new String(unsealBytes(sealed), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] unsealBytes(byte[] sealed) throws Exception {
+        TunnelRatchet ctx = tunnel;
+        if (ctx == null) throw new IOException("Tunel inchis");
+        long t = System.nanoTime();
+        byte[] plain = ctx.open(sealed);
+        ConnectionMetrics.record(ConnectionMetrics.Timer.DECRYPT, System.nanoTime() - t);
+        return plain;
+    }
+
+    private static String openFrame(FrameCodec.Frame frame) throws Exception {
+        byte[] plain = unsealBytes(frame.body);
+        if (frame.compressed) {
+            TunnelCompression z = compression;
+            if (z == null) throw new IOException("Frame comprimat fara compresie negociata");
+            plain = z.decompress(plain);
+        }
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toLine(String json) {
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static InboundPacket readNextPacket() throws Exception {
+        InboundPacket batched = inboundBatch.pollFirst();
+        if (batched != null) {
+            return batched;
+        }
+
+        if (isBinaryFraming()) {
+            return readNextFrame();
         }
 
-        NetworkPacket packet = NetworkPacket.fromJson(jsonRaw);
+        // Modul vechi: JSON-uri unul dupa altul pe stream, citite direct cu JsonReader
+        if (jsonIn == null) {
+            jsonIn = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            jsonIn.setLenient(true);
+            receivedMark = received.count();
+        }
+
+        InboundPacket packet = PacketCodec.read(jsonIn);
+        if (packet == null) {
+            return null;
+        }
 
+        // Cititorul ia din socket inainte, deci pe pachet e aproximativ; totalul e exact
+        long count = received.count();
+        int size = (int) (count - receivedMark);
+        receivedMark = count;
 
         if (sessionKey != null && packet.getType() == PacketType.SECURE_ENVELOPE) {
             try {
-                String encryptedPayload = packet.getPayload().getAsString();
+                String encryptedPayload = packet.getPayload();
                 byte[] packedBytes = Base64.decode(encryptedPayload, Base64.NO_WRAP);
 
-                String originalJson = CryptoHelper.unpackAndDecrypt(sessionKey, packedBytes);
-                packet = NetworkPacket.fromJson(originalJson);
+                String originalJson = unseal(packedBytes);
+                packet = PacketCodec.read(new JsonReader(new StringReader(originalJson)));
             } catch (Exception e) {
                 Log.e("TCP", "Eroare decriptare Tunel!");
                 throw e;
@@ -286,18 +813,159 @@ public class TcpConnection {
              Log.d("TCP", "Pachet primit direct: " + packet.getType());
         }
 
+        if (packet != null) ConnectionMetrics.recordReceived(packet.getType(), size);
+
         return packet;
     }
 
+    private static InboundPacket readNextFrame() throws Exception {
+        while (true) {
+            FrameCodec.Frame frame = FrameCodec.read(in);
+            if (frame == null) {
+                return null;
+            }
+
+            InboundPacket packet;
+            switch (frame.kind) {
+                case FrameCodec.KIND_PLAIN:
+                    packet = PacketCodec.read(new JsonReader(new InputStreamReader(
+                            new ByteArrayInputStream(frame.body), StandardCharsets.UTF_8)));
+                    return received(packet, frame);
+
+                case FrameCodec.KIND_SEALED:
+                    try {
+                        String json = openFrame(frame);
+                        packet = PacketCodec.read(new JsonReader(new StringReader(json)));
+                    } catch (Exception e) {
+                        Log.e("TCP", "Eroare decriptare Tunel!");
+                        throw e;
+                    }
+                    return received(packet, frame);
+
+                case FrameCodec.KIND_BATCH:
+                    JsonReader batchReader = new JsonReader(new StringReader(openFrame(frame)));
+                    List<InboundPacket> inner = new ArrayList<>();
+                    batchReader.beginArray();
+                    while (batchReader.hasNext()) {
+                        inner.add(PacketCodec.read(batchReader));
+                    }
+                    batchReader.endArray();
+
+                    // Marimea fiecaruia in record nu se vede din JsonReader: parti egale
+                    List<PacketType> types = new ArrayList<>(inner.size());
+                    for (InboundPacket p : inner) types.add(p.getType());
+                    ConnectionMetrics.recordReceived(types, new int[inner.size()],
+                            FrameCodec.HEADER_SIZE + frame.body.length);
+                    inboundBatch.addAll(inner);
+
+                    InboundPacket first = inboundBatch.pollFirst();
+                    if (first != null) return first;
+                    break;
+
+                case FrameCodec.KIND_PING:
+                    sendControl(FrameCodec.KIND_PONG, openFrame(frame));
+                    break;
+
+                case FrameCodec.KIND_PONG:
+                    Heartbeat current = heartbeat;
+                    if (current != null) current.onPong(openFrame(frame));
+                    break;
+
+                case FrameCodec.KIND_TICKET:
+                    String grantJson = openFrame(frame);
+                    SessionTicket.store(currentHost, currentPort, sessionKey, grantJson);
+                    break;
+
+                case FrameCodec.KIND_KEY_UPDATE:
+                    TunnelRatchet ratchet = tunnel;
+                    if (ratchet == null || !ratchet.isEnabled()) throw new IOException("KEY_UPDATE nenegociat");
+                    ratchet.onKeyUpdate(frame.body);
+                    Log.d("TCP", "Cheie noua de primire pe tunel.");
+                    break;
+
+                default:
+                    Log.w("TCP", "Frame necunoscut ignorat: " + frame.kind);
+            }
+        }
+    }
+
+    private static void sendControl(byte kind, String body) {
+        PacketWriter currentWriter = writer;
+        if (currentWriter != null) {
+            currentWriter.enqueueControl(() -> sealFrame(kind, body, false));
+        }
+    }
+
+    private static InboundPacket received(InboundPacket packet, FrameCodec.Frame frame) {
+        if (packet != null) {
+            ConnectionMetrics.recordReceived(packet.getType(), FrameCodec.HEADER_SIZE + frame.body.length);
+        }
+        return packet;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count = new AtomicLong();
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
+    public static String dumpMetrics() {
+        return ConnectionMetrics.dump();
+    }
+
     public static void close() {
         try {
             isReading = false;
-            sessionKey = null;
+            setSessionKey(null, ProtocolFeatures.none());
+            features = ProtocolFeatures.none();
+            PacketCodec.setCompactBytes(false);
+            if (heartbeat != null) {
+                heartbeat.stop();
+                heartbeat = null;
+            }
+            readTimeoutFallback = false;
+            silenceProbe = false;
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
             if (out != null) out.close();
             if (in != null) in.close();
+            jsonIn = null;
+            inboundBatch.clear();
             if (socket != null) socket.close();
+            for (Integer id : pendingRequests.keySet()) {
+                failRequest(id, new IOException("Conexiune inchisa"));
+            }
             Log.d("TCP", "Socket inchis.");
-        } catch (IOException e) {
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
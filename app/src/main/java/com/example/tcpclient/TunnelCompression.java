@@ -0,0 +1,104 @@
+package com.example.tcpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresie deflate pe record, inainte de sigilare, activa doar daca s-a negociat
+ * "deflate" cu aceeasi versiune de dictionar. Fiecare record e comprimat separat
+ * (fara stare intre record-uri), cu un dictionar fix facut din numele de
+ * PacketType si campurile JSON ale protocolului, deci si pachetele mici castiga.
+ * Record-urile sub MIN_SIZE sau care nu scad destul pleaca necomprimate;
+ * frame-ul comprimat are bitul FrameCodec.FLAG_COMPRESSED.
+ * Un obiect per conexiune; compress pe writer, decompress pe thread-ul de citire.
+ * Dupa end() compress intoarce null (record necomprimat), pentru cine mai tine
+ * o referinta la instanta veche.
+ */
+final class TunnelCompression {
+    // Se schimba impreuna cu dictionarul, serverul trebuie sa aiba acelasi
+    static final String DICTIONARY_VERSION = "1";
+    static final int MIN_SIZE = 256;
+
+    private static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    // Deflate cauta mai ieftin spre sfarsitul dictionarului, deci cele mai dese sunt la final.
+    // Nu se genereaza din PacketType.values(): trebuie sa fie identic cu al serverului
+    private static final byte[] DICTIONARY = (
+            "KYBER_SERVER_HELLO KYBER_CLIENT_FINISH SECURE_ENVELOPE LOGOUT ERROR "
+                    + "CALL_REQUEST CALL_ACCEPT CALL_DENY CALL_END EXCHANGE_VOICE_KEY "
+                    + "REGISTER_REQUEST REGISTER_RESPONSE LOGIN_REQUEST LOGIN_RESPONSE "
+                    + "CREATE_CHAT_REQUEST CREATE_CHAT_RESPONSE CREATE_CHAT_BROADCAST "
+                    + "RENAME_CHAT_REQUEST RENAME_CHAT_RESPONSE RENAME_CHAT_BROADCAST "
+                    + "DELETE_CHAT_REQUEST DELETE_CHAT_RESPONSE DELETE_CHAT_BROADCAST "
+                    + "GET_GROUP_MEMBERS_REQUEST GET_GROUP_MEMBERS_RESPONSE EXCHANGE_SESSION_KEY "
+                    + "ENTER_CHAT_REQUEST ENTER_CHAT_RESPONSE EXIT_CHAT_REQUEST EXIT_CHAT_RESPONSE "
+                    + "DELETE_MESSAGE_REQUEST DELETE_MESSAGE_BROADCAST EDIT_MESSAGE_REQUEST EDIT_MESSAGE_BROADCAST "
+                    + "GET_USERS_REQUEST GET_USERS_RESPONSE GET_MESSAGES_REQUEST GET_MESSAGES_RESPONSE "
+                    + "GET_CHATS_REQUEST GET_CHATS_RESPONSE SEND_MESSAGE RECEIVE_MESSAGE "
+                    + "{\"username\":\"\",\"password\":\"\",\"passwordHash\":\"\",\"salt\":\"\",\"createdAt\":"
+                    + "{\"targetUserId\":,\"groupName\":\"\"}{\"chatId\":,\"newName\":\"\"}{\"chatId\":,\"aesKeyBase64\":\""
+                    + "{\"messageId\":,\"newContent\":\"\"}{\"groupId\":,\"userId\":}"
+                    + "{\"id\":,\"content\":\"\",\"timestamp\":,\"senderId\":,\"groupId\":}"
+                    + "[{\"id\":,\"name\":\"\"},{\"id\":,\"name\":\"\"}]"
+                    + "\"requestId\":,\"clientId\":\"\"}"
+                    + "{\"type\":\"\",\"senderId\":,\"payload\":"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+    private final byte[] chunk = new byte[8192];
+    private boolean ended = false;
+
+    // null daca nu merita (castig sub 1/8)
+    synchronized byte[] compress(byte[] plain) {
+        if (ended) return null;
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(plain);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 2);
+        int limit = plain.length - plain.length / 8;
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+            if (out.size() >= limit) return null;
+        }
+        return out.toByteArray();
+    }
+
+    synchronized byte[] decompress(byte[] packed) throws IOException {
+        if (ended) throw new IOException("Compresie inchisa");
+        inflater.reset();
+        inflater.setInput(packed);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 3);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Record comprimat trunchiat");
+                    }
+                    continue;
+                }
+                out.write(chunk, 0, n);
+                if (out.size() > MAX_INFLATED_SIZE) throw new IOException("Record comprimat prea mare");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Record comprimat invalid: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    synchronized void end() {
+        ended = true;
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.tcpclient;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Derivari de chei pentru tunel, HMAC-SHA256 cu o eticheta per utilizare.
+ * Folosit cand vrem o cheie noua fara sa refacem Kyber + ECDH.
+ */
+final class TunnelKdf {
+    private TunnelKdf() {
+    }
+
+    static byte[] hmac(byte[] key, String label, byte[]... parts) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        mac.update(label.getBytes(StandardCharsets.UTF_8));
+        for (byte[] part : parts) {
+            mac.update(part);
+        }
+        return mac.doFinal();
+    }
+
+    static SecretKey deriveKey(SecretKey key, String label, byte[]... parts) throws Exception {
+        return new SecretKeySpec(hmac(key.getEncoded(), label, parts), "AES");
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.tcpclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Cheile tunelului pe cele doua directii. Cu "dirkeys" fiecare directie porneste
+ * de la cheia ei, generatia 0 din formula de mai jos; altfel (servere vechi) ambele
+ * sunt cheia de sesiune si doar prefixul aleator al nonce-ului le separa.
+ * Daca s-a negociat "rekey", dupa maxRecords record-uri sau maxBytes octeti
+ * trimisi, cheia de trimitere avanseaza: next = HMAC(curent, "tunnel-rekey" + directie + generatie).
+ * Schimbarea e anuntata cu un frame KEY_UPDATE sigilat cu cheia veche, deci
+ * cealalta parte stie exact de la ce record incepe cheia noua. Fiecare directie
+ * avanseaza independent, fara pauza in trafic si fara alt handshake Kyber + ECDH.
+ * Cheia de sesiune initiala ramane neschimbata pentru tichetele de reluare.
+ */
+final class TunnelRatchet {
+    static volatile long maxRecords = 1L << 20;
+    static volatile long maxBytes = 256L * 1024 * 1024;
+
+    private static final String LABEL = "tunnel-rekey";
+    private static final byte[] CLIENT_TO_SERVER = {'c', '2', 's'};
+    private static final byte[] SERVER_TO_CLIENT = {'s', '2', 'c'};
+
+    private final AeadContext.Algorithm algorithm;
+    private final boolean enabled;
+
+    // Trimitere: writer-ul (si handshake-ul, inainte sa existe writer), sub sendLock
+    private final Object sendLock = new Object();
+    private SecretKey sendKey;
+    private AeadContext send;
+    private long sendGeneration = 0;
+    private long records = 0;
+    private long bytes = 0;
+
+    // Primire: doar thread-ul de citire
+    private SecretKey receiveKey;
+    private AeadContext receive;
+    private long receiveGeneration = 0;
+
+    TunnelRatchet(SecretKey sessionKey, AeadContext.Algorithm algorithm, boolean enabled, boolean directional)
+            throws Exception {
+        this.sendKey = directional ? next(sessionKey, CLIENT_TO_SERVER, 0) : sessionKey;
+        this.receiveKey = directional ? next(sessionKey, SERVER_TO_CLIENT, 0) : sessionKey;
+        this.send = AeadContext.forSession(sendKey, algorithm);
+        // forSession poate reveni la AES; ambele directii raman pe acelasi algoritm
+        this.algorithm = send.getAlgorithm();
+        this.receive = AeadContext.forSession(receiveKey, this.algorithm);
+        this.enabled = enabled;
+    }
+
+    static void setLimits(long records, long bytes) {
+        maxRecords = records;
+        maxBytes = bytes;
+    }
+
+    AeadContext.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    byte[] seal(byte[] plain) throws Exception {
+        synchronized (sendLock) {
+            records++;
+            bytes += plain.length;
+            return send.encrypt(plain);
+        }
+    }
+
+    byte[] open(byte[] sealed) throws Exception {
+        return receive.decryptBytes(sealed);
+    }
+
+    // Corpul unui KEY_UPDATE daca e timpul pentru o cheie noua, altfel null.
+    // Tot ce se sigileaza dupa apel foloseste deja cheia noua
+    byte[] rekeyIfDue() throws Exception {
+        synchronized (sendLock) {
+            if (!enabled || (records < maxRecords && bytes < maxBytes)) return null;
+
+            long generation = sendGeneration + 1;
+            byte[] update = send.encrypt(Long.toString(generation));
+
+            sendKey = next(sendKey, CLIENT_TO_SERVER, generation);
+            send = AeadContext.forSession(sendKey, algorithm);
+            sendGeneration = generation;
+            records = 0;
+            bytes = 0;
+            return update;
+        }
+    }
+
+    void onKeyUpdate(byte[] body) throws Exception {
+        long generation;
+        try {
+            generation = Long.parseLong(receive.decrypt(body).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("KEY_UPDATE invalid");
+        }
+        if (generation != receiveGeneration + 1) {
+            throw new IOException("KEY_UPDATE in afara ordinii: " + generation + ", asteptam " + (receiveGeneration + 1));
+        }
+
+        receiveKey = next(receiveKey, SERVER_TO_CLIENT, generation);
+        receive = AeadContext.forSession(receiveKey, algorithm);
+        receiveGeneration = generation;
+    }
+
+    private static SecretKey next(SecretKey current, byte[] direction, long generation) throws Exception {
+        return TunnelKdf.deriveKey(current, LABEL, direction, ByteBuffer.allocate(8).putLong(generation).array());
+    }
+}
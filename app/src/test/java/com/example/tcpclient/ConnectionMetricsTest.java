@@ -0,0 +1,146 @@
+package com.example.tcpclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import chat.PacketType;
+
+import static org.junit.Assert.*;
+
+public class ConnectionMetricsTest {
+
+    private static final long US = 1000;
+
+    @Before
+    public void setUp() {
+        ConnectionMetrics.reset();
+    }
+
+    private static int sum(int[] values) {
+        int total = 0;
+        for (int v : values) total += v;
+        return total;
+    }
+
+    @Test
+    public void histogram_subMicrosecondGoesToFirstBucket() {
+        ConnectionMetrics.Histogram h = new ConnectionMetrics.Histogram();
+        h.record(999);
+        h.record(-5);
+
+        assertEquals(2, h.getCount());
+        assertEquals(0, h.getMaxMicros());
+        assertEquals(0, h.percentileMicros(100));
+    }
+
+    @Test
+    public void histogram_bucketEdgesArePowersOfTwo() {
+        // 1023us e in [512, 1024), 1024us deja in [1024, 2048)
+        ConnectionMetrics.Histogram below = new ConnectionMetrics.Histogram();
+        below.record(1023 * US);
+        below.record(5000 * US);
+        assertEquals(1024, below.percentileMicros(50));
+
+        ConnectionMetrics.Histogram at = new ConnectionMetrics.Histogram();
+        at.record(1024 * US);
+        at.record(5000 * US);
+        assertEquals(2048, at.percentileMicros(50));
+
+        ConnectionMetrics.Histogram one = new ConnectionMetrics.Histogram();
+        one.record(US);
+        one.record(5000 * US);
+        assertEquals(2, one.percentileMicros(50));
+    }
+
+    @Test
+    public void histogram_percentileNeverExceedsMax() {
+        ConnectionMetrics.Histogram h = new ConnectionMetrics.Histogram();
+        h.record(1500 * US);
+        assertEquals(1500, h.percentileMicros(99));
+        assertEquals(1500, h.getMaxMicros());
+    }
+
+    @Test
+    public void histogram_hugeValuesLandInLastBucket() {
+        ConnectionMetrics.Histogram h = new ConnectionMetrics.Histogram();
+        h.record(Long.MAX_VALUE);
+        assertEquals(1, h.getCount());
+        assertEquals(Long.MAX_VALUE / US, h.getMaxMicros());
+        assertEquals(1L << 39, h.percentileMicros(50));
+    }
+
+    @Test
+    public void histogram_meanAndReset() {
+        ConnectionMetrics.Histogram h = new ConnectionMetrics.Histogram();
+        h.record(10 * US);
+        h.record(30 * US);
+        assertEquals(20, h.getMeanMicros());
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMeanMicros());
+        assertEquals(0, h.percentileMicros(50));
+    }
+
+    @Test
+    public void split_isProportionalAndSumsToBytes() {
+        int[] shares = ConnectionMetrics.split(new int[]{100, 300}, 1000);
+        assertArrayEquals(new int[]{250, 750}, shares);
+
+        int[] uneven = ConnectionMetrics.split(new int[]{1, 1, 1}, 100);
+        assertEquals(100, sum(uneven));
+        // Restul impartirii merge la ultimul
+        assertArrayEquals(new int[]{33, 33, 34}, uneven);
+    }
+
+    @Test
+    public void split_zeroWeightsSplitEvenly() {
+        int[] shares = ConnectionMetrics.split(new int[4], 103);
+        assertEquals(103, sum(shares));
+        assertArrayEquals(new int[]{25, 25, 25, 28}, shares);
+    }
+
+    @Test
+    public void split_singleAndEmpty() {
+        assertArrayEquals(new int[]{77}, ConnectionMetrics.split(new int[]{5}, 77));
+        assertEquals(0, ConnectionMetrics.split(new int[0], 77).length);
+    }
+
+    @Test
+    public void split_largeRecordDoesNotOverflow() {
+        int[] shares = ConnectionMetrics.split(new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE}, 16 * 1024 * 1024);
+        assertEquals(16 * 1024 * 1024, sum(shares));
+        assertEquals(shares[0], shares[1]);
+    }
+
+    @Test
+    public void batchTraffic_isCountedPerType() {
+        ConnectionMetrics.recordSent(Arrays.asList(PacketType.SEND_MESSAGE, PacketType.GET_CHATS_REQUEST),
+                new int[]{3, 1}, 400);
+        ConnectionMetrics.recordReceived(PacketType.RECEIVE_MESSAGE, 120);
+        ConnectionMetrics.recordSent((PacketType) null, 50);
+
+        assertEquals(1, ConnectionMetrics.packetsSent(PacketType.SEND_MESSAGE));
+        assertEquals(300, ConnectionMetrics.bytesSent(PacketType.SEND_MESSAGE));
+        assertEquals(100, ConnectionMetrics.bytesSent(PacketType.GET_CHATS_REQUEST));
+        assertEquals(1, ConnectionMetrics.packetsReceived(PacketType.RECEIVE_MESSAGE));
+        assertEquals(120, ConnectionMetrics.bytesReceived(PacketType.RECEIVE_MESSAGE));
+    }
+
+    @Test
+    public void dump_listsOnlyUsedTimersAndTypes() {
+        ConnectionMetrics.record(ConnectionMetrics.Timer.ENCRYPT, 40 * US);
+        ConnectionMetrics.recordSent(PacketType.LOGIN_REQUEST, 90);
+
+        String dump = ConnectionMetrics.dump();
+        assertTrue(dump.contains("ENCRYPT"));
+        assertFalse(dump.contains("HANDSHAKE_TOTAL"));
+        assertTrue(dump.contains("LOGIN_REQUEST"));
+        assertFalse(dump.contains("LOGOUT"));
+
+        ConnectionMetrics.reset();
+        assertFalse(ConnectionMetrics.dump().contains("LOGIN_REQUEST"));
+    }
+}
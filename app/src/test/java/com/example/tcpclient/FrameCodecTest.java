@@ -0,0 +1,99 @@
+package com.example.tcpclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+
+    private static DataInputStream stream(byte[]... parts) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (byte[] part : parts) all.write(part);
+        return new DataInputStream(new ByteArrayInputStream(all.toByteArray()));
+    }
+
+    @Test
+    public void encodeThenRead_roundTrips() throws IOException {
+        byte[] body = "{\"type\":\"LOGOUT\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = FrameCodec.encode(FrameCodec.KIND_SEALED, body);
+
+        assertEquals(FrameCodec.HEADER_SIZE + body.length, encoded.length);
+        // Lungimea include byte-ul de tip
+        assertEquals(body.length + 1, ((encoded[0] & 0xFF) << 24) | ((encoded[1] & 0xFF) << 16)
+                | ((encoded[2] & 0xFF) << 8) | (encoded[3] & 0xFF));
+
+        FrameCodec.Frame frame = FrameCodec.read(stream(encoded));
+        assertEquals(FrameCodec.KIND_SEALED, frame.kind);
+        assertFalse(frame.compressed);
+        assertArrayEquals(body, frame.body);
+    }
+
+    @Test
+    public void consecutiveFrames_areReadInOrder() throws IOException {
+        DataInputStream in = stream(
+                FrameCodec.encode(FrameCodec.KIND_PING, new byte[]{1}),
+                FrameCodec.encode(FrameCodec.KIND_BATCH, new byte[0]),
+                FrameCodec.encode(FrameCodec.KIND_KEY_UPDATE, new byte[]{7, 8}));
+
+        assertEquals(FrameCodec.KIND_PING, FrameCodec.read(in).kind);
+        FrameCodec.Frame empty = FrameCodec.read(in);
+        assertEquals(FrameCodec.KIND_BATCH, empty.kind);
+        assertEquals(0, empty.body.length);
+        assertArrayEquals(new byte[]{7, 8}, FrameCodec.read(in).body);
+        assertNull(FrameCodec.read(in));
+    }
+
+    @Test
+    public void compressedFlag_isSplitFromKind() throws IOException {
+        byte kind = (byte) (FrameCodec.KIND_BATCH | FrameCodec.FLAG_COMPRESSED);
+        FrameCodec.Frame frame = FrameCodec.read(stream(FrameCodec.encode(kind, new byte[]{42})));
+
+        assertEquals(FrameCodec.KIND_BATCH, frame.kind);
+        assertTrue(frame.compressed);
+    }
+
+    @Test
+    public void endOfStream_returnsNull() throws IOException {
+        assertNull(FrameCodec.read(stream()));
+    }
+
+    @Test(expected = IOException.class)
+    public void zeroLength_isRejected() throws IOException {
+        FrameCodec.read(stream(new byte[]{0, 0, 0, 0, 1}));
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedLength_isRejected() throws IOException {
+        FrameCodec.read(stream(new byte[]{0x7F, 0, 0, 0, 1}));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedBody_fails() throws IOException {
+        byte[] encoded = FrameCodec.encode(FrameCodec.KIND_SEALED, new byte[16]);
+        byte[] truncated = new byte[encoded.length - 4];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        FrameCodec.read(stream(truncated));
+    }
+
+    @Test
+    public void readLine_stopsAtNewlineWithoutReadingAhead() throws IOException {
+        byte[] frame = FrameCodec.encode(FrameCodec.KIND_SEALED, new byte[]{5, 6});
+        DataInputStream in = stream("{\"hello\":1}\r\n".getBytes(StandardCharsets.UTF_8), frame);
+
+        assertEquals("{\"hello\":1}", FrameCodec.readLine(in));
+        // Primul frame de dupa handshake trebuie sa ramana intreg in stream
+        assertArrayEquals(new byte[]{5, 6}, FrameCodec.read(in).body);
+    }
+
+    @Test
+    public void readLine_atEndOfStream_returnsNull() throws IOException {
+        assertNull(FrameCodec.readLine(stream()));
+        assertEquals("partial", FrameCodec.readLine(stream("partial".getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.tcpclient;
+
+import android.util.Base64;
+
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import chat.ChatDtos;
+import chat.Message;
+import chat.NetworkPacket;
+import chat.PacketType;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class PacketCodecTest {
+
+    @After
+    public void resetCompactBytes() {
+        PacketCodec.setCompactBytes(false);
+    }
+
+    private static InboundPacket parse(String json) throws IOException {
+        return PacketCodec.read(new JsonReader(new StringReader(json)));
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertArrayEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getGroupId(), actual.getGroupId());
+    }
+
+    @Test
+    public void read_typeFirst_bindsPayloadToDto() throws IOException {
+        InboundPacket packet = parse("{\"type\":\"RECEIVE_MESSAGE\",\"senderId\":7,"
+                + "\"payload\":{\"id\":3,\"content\":[1,2,3],\"timestamp\":99,\"senderId\":7,\"groupId\":2}}");
+
+        assertEquals(PacketType.RECEIVE_MESSAGE, packet.getType());
+        assertEquals(7, packet.getSenderId());
+        Message message = packet.getPayload();
+        assertSameMessage(new Message(3, new byte[]{1, 2, 3}, 99, 7, 2), message);
+    }
+
+    @Test
+    public void read_typeAfterPayload_bindsSameDto() throws IOException {
+        InboundPacket packet = parse("{\"payload\":{\"id\":3,\"content\":[1,2,3],\"timestamp\":99,"
+                + "\"senderId\":7,\"groupId\":2},\"senderId\":7,\"type\":\"RECEIVE_MESSAGE\"}");
+
+        assertEquals(PacketType.RECEIVE_MESSAGE, packet.getType());
+        Message message = packet.getPayload();
+        assertSameMessage(new Message(3, new byte[]{1, 2, 3}, 99, 7, 2), message);
+    }
+
+    @Test
+    public void read_typeAfterPayload_stillPicksObjectForm() throws IOException {
+        // Raspunsul la extensiile negociate vine ca obiect, nu ca lista
+        InboundPacket packet = parse("{\"payload\":{},\"type\":\"GET_MESSAGES_RESPONSE\"}");
+
+        assertTrue(packet.getPayload() instanceof ClientDtos.HistorySyncResultDto);
+    }
+
+    @Test
+    public void read_listPayload_keepsListType() throws IOException {
+        InboundPacket packet = parse("{\"type\":\"GET_USERS_RESPONSE\",\"payload\":[\"ana\",\"ion\"]}");
+
+        List<String> users = packet.getPayload();
+        assertEquals(List.of("ana", "ion"), users);
+    }
+
+    @Test
+    public void read_unknownFieldsAndTypes_areTolerated() throws IOException {
+        InboundPacket packet = parse("{\"extra\":{\"a\":[1]},\"type\":\"CALL_END\",\"payload\":{\"x\":1}}");
+
+        assertEquals(PacketType.CALL_END, packet.getType());
+        // Tip fara DTO: ramane arbore JSON
+        assertTrue(packet.getPayload() instanceof JsonElement);
+    }
+
+    @Test
+    public void read_legacyStream_packetsBackToBackThenNull() throws IOException {
+        // Modul vechi: JSON-uri unul dupa altul pe acelasi reader
+        JsonReader reader = new JsonReader(new StringReader(
+                "{\"type\":\"DELETE_CHAT_BROADCAST\",\"payload\":5}{\"type\":\"LOGOUT\"}"));
+        reader.setLenient(true);
+
+        InboundPacket first = PacketCodec.read(reader);
+        assertEquals(PacketType.DELETE_CHAT_BROADCAST, first.getType());
+        assertEquals(Integer.valueOf(5), first.getPayload());
+        assertEquals(PacketType.LOGOUT, PacketCodec.read(reader).getType());
+        assertNull(PacketCodec.read(reader));
+    }
+
+    @Test
+    public void read_requestIdAndClientId_areKept() throws IOException {
+        InboundPacket packet = parse("{\"type\":\"GET_CHATS_RESPONSE\",\"payload\":[],\"requestId\":12,\"clientId\":\"c-1\"}");
+
+        assertEquals(12, packet.getRequestId());
+        assertEquals("c-1", packet.getClientId());
+    }
+
+    @Test
+    public void read_missingRequestId_fallsBackToResponseType() throws IOException {
+        // Serverele vechi nu intorc requestId: raspunsul se potriveste dupa tipul asteptat
+        InboundPacket packet = parse("{\"type\":\"GET_MESSAGES_RESPONSE\",\"payload\":[]}");
+
+        assertEquals(0, packet.getRequestId());
+        assertEquals(packet.getType(), PacketCodec.responseTypeFor(PacketType.GET_MESSAGES_REQUEST));
+    }
+
+    @Test
+    public void responseTypeFor_onlyRequestsWithPairedResponse() {
+        assertEquals(PacketType.LOGIN_RESPONSE, PacketCodec.responseTypeFor(PacketType.LOGIN_REQUEST));
+        assertEquals(PacketType.GET_GROUP_MEMBERS_RESPONSE,
+                PacketCodec.responseTypeFor(PacketType.GET_GROUP_MEMBERS_REQUEST));
+        // Fara raspuns pereche
+        assertNull(PacketCodec.responseTypeFor(PacketType.EDIT_MESSAGE_REQUEST));
+        assertNull(PacketCodec.responseTypeFor(PacketType.DELETE_MESSAGE_REQUEST));
+        assertNull(PacketCodec.responseTypeFor(PacketType.CALL_REQUEST));
+        // Nu e cerere
+        assertNull(PacketCodec.responseTypeFor(PacketType.SEND_MESSAGE));
+    }
+
+    @Test
+    public void toJson_isReadByChatLib() throws IOException {
+        Message sent = new Message(0, new byte[]{-5, 0, 127}, 1234, 4, 9);
+
+        NetworkPacket decoded = NetworkPacket.fromJson(
+                PacketCodec.toJson(PacketCodec.newPacket(PacketType.SEND_MESSAGE, 4, sent), 0));
+
+        assertEquals(PacketType.SEND_MESSAGE, decoded.getType());
+        assertEquals(4, decoded.getSenderId());
+        assertSameMessage(sent, PacketCodec.GSON.fromJson(decoded.getPayload(), Message.class));
+    }
+
+    @Test
+    public void toJson_extraFieldsOnlyWhenSet() throws IOException {
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.GET_CHATS_REQUEST, 4, null);
+
+        assertEquals("{\"type\":\"GET_CHATS_REQUEST\",\"senderId\":4}", PacketCodec.toJson(packet, 0));
+        assertEquals("{\"type\":\"GET_CHATS_REQUEST\",\"senderId\":4,\"requestId\":5,\"clientId\":\"c-1\"}",
+                PacketCodec.toJson(packet, 5, "c-1"));
+        // Campurile noi nu incurca chat-lib
+        assertEquals(PacketType.GET_CHATS_REQUEST, NetworkPacket.fromJson(PacketCodec.toJson(packet, 5, "c-1")).getType());
+    }
+
+    @Test
+    public void chatLibJson_isReadIntoDto() throws IOException {
+        Message sent = new Message(8, new byte[]{10, -20}, 55, 3, 1);
+
+        InboundPacket packet = parse(new NetworkPacket(PacketType.RECEIVE_MESSAGE, 3, sent).toJson());
+
+        assertEquals(PacketType.RECEIVE_MESSAGE, packet.getType());
+        assertEquals(3, packet.getSenderId());
+        Message message = packet.getPayload();
+        assertSameMessage(sent, message);
+    }
+
+    // Cu android.jar din testele JVM, Base64 intoarce null: testele cu "b64" merg doar pe device/stub
+    private static void assumeAndroidBase64() {
+        assumeNotNull(Base64.encodeToString(new byte[]{1}, Base64.NO_WRAP));
+    }
+
+    @Test
+    public void bytes_withoutCompact_areNumberArray() throws IOException {
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.EDIT_MESSAGE_REQUEST, 4,
+                new ChatDtos.EditMessageDto(3, new byte[]{1, -2, 127}));
+
+        assertEquals("{\"type\":\"EDIT_MESSAGE_REQUEST\",\"senderId\":4,"
+                + "\"payload\":{\"messageId\":3,\"newContent\":[1,-2,127]}}", PacketCodec.toJson(packet, 0));
+    }
+
+    @Test
+    public void bytes_withCompact_areBase64() throws IOException {
+        assumeAndroidBase64();
+        PacketCodec.setCompactBytes(true);
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.EDIT_MESSAGE_REQUEST, 4,
+                new ChatDtos.EditMessageDto(3, new byte[]{1, -2, 127}));
+
+        assertEquals("{\"type\":\"EDIT_MESSAGE_REQUEST\",\"senderId\":4,"
+                + "\"payload\":{\"messageId\":3,\"newContent\":\"Af5/\"}}", PacketCodec.toJson(packet, 0));
+    }
+
+    @Test
+    public void bytes_encodedWhenWritten_notWhenBuilt() throws IOException {
+        assumeAndroidBase64();
+        // Construit inainte de negociere, trimis pe o conexiune cu "b64"
+        NetworkPacket packet = PacketCodec.newPacket(PacketType.EDIT_MESSAGE_REQUEST, 4,
+                new ChatDtos.EditMessageDto(3, new byte[]{1, -2, 127}));
+        PacketCodec.setCompactBytes(true);
+
+        assertTrue(PacketCodec.toJson(packet, 0).contains("\"newContent\":\"Af5/\""));
+        // Forma portabila (Outbox) ramane array de numere
+        assertTrue(packet.getPayload().getAsJsonObject().get("newContent").isJsonArray());
+    }
+
+    @Test
+    public void bytes_numberArray_isReadEvenWithCompact() throws IOException {
+        // Serverele vechi trimit array chiar daca noi am fi activat "b64"
+        PacketCodec.setCompactBytes(true);
+        InboundPacket packet = parse("{\"type\":\"EDIT_MESSAGE_BROADCAST\","
+                + "\"payload\":{\"messageId\":3,\"newContent\":[1,-2,127]}}");
+
+        ChatDtos.EditMessageDto edit = packet.getPayload();
+        assertArrayEquals(new byte[]{1, -2, 127}, edit.newContent);
+    }
+
+    @Test
+    public void bytes_base64_isRead() throws IOException {
+        assumeAndroidBase64();
+        InboundPacket packet = parse("{\"type\":\"EDIT_MESSAGE_BROADCAST\","
+                + "\"payload\":{\"messageId\":3,\"newContent\":\"Af5/\"}}");
+
+        ChatDtos.EditMessageDto edit = packet.getPayload();
+        assertArrayEquals(new byte[]{1, -2, 127}, edit.newContent);
+    }
+
+    @Test
+    public void bytes_withoutCompact_matchChatLib() throws IOException {
+        Message sent = new Message(8, new byte[]{0, -128, 55}, 55, 3, 1);
+
+        String ours = PacketCodec.toJson(PacketCodec.newPacket(PacketType.SEND_MESSAGE, 3, sent), 0);
+
+        assertEquals(new NetworkPacket(PacketType.SEND_MESSAGE, 3, sent).toJson(), ours);
+    }
+}
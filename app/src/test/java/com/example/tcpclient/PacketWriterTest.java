@@ -0,0 +1,312 @@
+package com.example.tcpclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import chat.NetworkPacket;
+import chat.PacketType;
+
+import static org.junit.Assert.*;
+
+public class PacketWriterTest {
+
+    // Socket-ul: tine fiecare write, grupate pe flush; cu gate, prima scriere asteapta release()
+    private static final class Sink extends OutputStream {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate;
+        private final List<List<String>> flushed = new ArrayList<>();
+        private List<String> current = new ArrayList<>();
+
+        Sink(boolean gated) {
+            gate = new CountDownLatch(gated ? 1 : 0);
+        }
+
+        @Override
+        public void write(int b) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            synchronized (this) {
+                current.add(new String(b, off, len, StandardCharsets.UTF_8));
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            flushed.add(current);
+            current = new ArrayList<>();
+            notifyAll();
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(entered.await(2, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        synchronized List<List<String>> awaitFlushes(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (flushed.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertEquals(count, flushed.size());
+            return new ArrayList<>(flushed);
+        }
+    }
+
+    private static final PacketWriter.Encoder ENCODER =
+            (packet, requestId, clientId) -> label(packet, requestId).getBytes(StandardCharsets.UTF_8);
+
+    // Tot ce nu e LOGOUT intra in record-uri comune
+    private static final class FakeBatcher implements PacketWriter.Batcher {
+        final List<List<String>> records = new ArrayList<>();
+
+        @Override
+        public String batchable(NetworkPacket packet, int requestId, String clientId) {
+            return packet.getType() == PacketType.LOGOUT ? null : label(packet, requestId);
+        }
+
+        @Override
+        public synchronized byte[] seal(List<NetworkPacket> packets, List<String> json) {
+            records.add(new ArrayList<>(json));
+            return json.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String label(NetworkPacket packet, int requestId) {
+        return packet.getType() + ":" + requestId;
+    }
+
+    private PacketWriter writer;
+    private Sink sink;
+
+    private PacketWriter start(Sink out, PacketWriter.Batcher batcher, boolean mayWait) {
+        sink = out;
+        writer = new PacketWriter(out, ENCODER, batcher) {
+            @Override
+            boolean mayWait() {
+                return mayWait;
+            }
+        };
+        return writer;
+    }
+
+    @After
+    public void tearDown() {
+        if (sink != null) sink.release();
+        if (writer != null) writer.shutdown();
+    }
+
+    private static NetworkPacket packet(PacketType type) {
+        return new NetworkPacket(type, 1);
+    }
+
+    // Writer-ul e blocat in scrierea primului pachet, deci tot ce urmeaza se aduna in cozi
+    private void blockOn(PacketType type) throws InterruptedException {
+        writer.enqueue(packet(type), 0, null);
+        sink.awaitBlocked();
+    }
+
+    private static List<String> labels(String type, int from, int to) {
+        List<String> out = new ArrayList<>();
+        for (int i = from; i <= to; i++) out.add(type + ":" + i);
+        return out;
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... parts) {
+        List<String> out = new ArrayList<>();
+        for (List<String> part : parts) out.addAll(part);
+        return out;
+    }
+
+    @Test
+    public void queuedPackets_goOutInOrderWithOneFlush() throws Exception {
+        start(new Sink(true), null, true);
+        blockOn(PacketType.SEND_MESSAGE);
+
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) sent.add(writer.enqueue(packet(PacketType.SEND_MESSAGE), i, null));
+        sink.release();
+
+        List<List<String>> batches = sink.awaitFlushes(2);
+        assertEquals(labels("SEND_MESSAGE", 1, 10), batches.get(1));
+        for (CompletableFuture<Void> future : sent) future.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void laneFor_routesByType() {
+        assertEquals(PacketWriter.Lane.CONTROL, PacketWriter.laneFor(PacketType.LOGIN_REQUEST));
+        assertEquals(PacketWriter.Lane.CONTROL, PacketWriter.laneFor(PacketType.EXCHANGE_SESSION_KEY));
+        assertEquals(PacketWriter.Lane.INTERACTIVE, PacketWriter.laneFor(PacketType.SEND_MESSAGE));
+        assertEquals(PacketWriter.Lane.INTERACTIVE, PacketWriter.laneFor(PacketType.LOGOUT));
+        assertEquals(PacketWriter.Lane.INTERACTIVE, PacketWriter.laneFor(null));
+        assertEquals(PacketWriter.Lane.BULK, PacketWriter.laneFor(PacketType.GET_MESSAGES_REQUEST));
+    }
+
+    @Test
+    public void lanes_controlFirstThenEightInteractivePerBulk() throws Exception {
+        start(new Sink(true), null, true);
+        blockOn(PacketType.SEND_MESSAGE);
+
+        for (int i = 1; i <= 12; i++) writer.enqueue(packet(PacketType.GET_USERS_REQUEST), i, null);
+        for (int i = 1; i <= 20; i++) writer.enqueue(packet(PacketType.SEND_MESSAGE), i, null);
+        writer.enqueue(packet(PacketType.LOGIN_REQUEST), 1, null);
+        sink.release();
+
+        List<List<String>> batches = sink.awaitFlushes(7);
+        assertEquals(Arrays.asList("SEND_MESSAGE:0"), batches.get(0));
+        assertEquals(concat(Arrays.asList("LOGIN_REQUEST:1"), labels("SEND_MESSAGE", 1, 8),
+                labels("GET_USERS_REQUEST", 1, 1)), batches.get(1));
+        assertEquals(concat(labels("SEND_MESSAGE", 9, 16), labels("GET_USERS_REQUEST", 2, 2)), batches.get(2));
+        assertEquals(concat(labels("SEND_MESSAGE", 17, 20), labels("GET_USERS_REQUEST", 3, 3)), batches.get(3));
+        // Doar bulk: loturi de cate 4
+        assertEquals(labels("GET_USERS_REQUEST", 4, 7), batches.get(4));
+        assertEquals(labels("GET_USERS_REQUEST", 8, 11), batches.get(5));
+        assertEquals(labels("GET_USERS_REQUEST", 12, 12), batches.get(6));
+    }
+
+    @Test
+    public void burst_isSealedAsOneRecord() throws Exception {
+        FakeBatcher batcher = new FakeBatcher();
+        start(new Sink(true), batcher, true);
+        blockOn(PacketType.SEND_MESSAGE);
+
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) sent.add(writer.enqueue(packet(PacketType.EDIT_MESSAGE_REQUEST), i, null));
+        sink.release();
+
+        List<List<String>> batches = sink.awaitFlushes(2);
+        assertEquals(1, batches.get(1).size());
+        assertEquals(labels("EDIT_MESSAGE_REQUEST", 1, 5), batcher.records.get(1));
+        for (CompletableFuture<Void> future : sent) future.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void unbatchablePacket_splitsRecordsInOrder() throws Exception {
+        FakeBatcher batcher = new FakeBatcher();
+        start(new Sink(true), batcher, true);
+        blockOn(PacketType.SEND_MESSAGE);
+
+        writer.enqueue(packet(PacketType.SEND_MESSAGE), 1, null);
+        writer.enqueue(packet(PacketType.SEND_MESSAGE), 2, null);
+        writer.enqueue(packet(PacketType.LOGOUT), 3, null);
+        writer.enqueue(packet(PacketType.SEND_MESSAGE), 4, null);
+        sink.release();
+
+        List<String> writes = sink.awaitFlushes(2).get(1);
+        assertEquals(Arrays.asList("[SEND_MESSAGE:1, SEND_MESSAGE:2]", "LOGOUT:3", "[SEND_MESSAGE:4]"), writes);
+    }
+
+    @Test
+    public void linger_coalescesBackToBackPackets() throws Exception {
+        FakeBatcher batcher = new FakeBatcher();
+        start(new Sink(false), batcher, true);
+
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) sent.add(writer.enqueue(packet(PacketType.SEND_MESSAGE), i, null));
+        for (CompletableFuture<Void> future : sent) future.get(2, TimeUnit.SECONDS);
+
+        // Fara linger fiecare pachet ar pleca singur: primul ar trezi writer-ul imediat
+        synchronized (batcher) {
+            assertTrue("Record-uri: " + batcher.records, batcher.records.size() < 10);
+        }
+    }
+
+    @Test
+    public void fullLane_waitsThenFails() throws Exception {
+        start(new Sink(true), null, true);
+        blockOn(PacketType.SEND_MESSAGE);
+        for (int i = 0; i < PacketWriter.Lane.BULK.capacity; i++) {
+            writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), i, null);
+        }
+
+        long t = System.nanoTime();
+        CompletableFuture<Void> rejected = writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), 999, null);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t);
+
+        assertTrue("A asteptat doar " + waitedMs + "ms", waitedMs >= 1_900);
+        assertFailsWith(rejected, "plina");
+        // Celelalte benzi nu sunt afectate
+        assertFalse(writer.enqueue(packet(PacketType.SEND_MESSAGE), 1, null).isCompletedExceptionally());
+    }
+
+    @Test
+    public void fullLane_onUiThreadFailsImmediately() throws Exception {
+        start(new Sink(true), null, false);
+        blockOn(PacketType.SEND_MESSAGE);
+        for (int i = 0; i < PacketWriter.Lane.BULK.capacity; i++) {
+            writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), i, null);
+        }
+
+        long t = System.nanoTime();
+        CompletableFuture<Void> rejected = writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), 999, null);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t) < 500);
+        assertFailsWith(rejected, "plina");
+    }
+
+    @Test
+    public void fullLane_acceptsOnceWriterDrains() throws Exception {
+        start(new Sink(true), null, true);
+        blockOn(PacketType.SEND_MESSAGE);
+        for (int i = 0; i < PacketWriter.Lane.BULK.capacity; i++) {
+            writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), i, null);
+        }
+
+        CompletableFuture<CompletableFuture<Void>> offered = CompletableFuture.supplyAsync(
+                () -> writer.enqueue(packet(PacketType.GET_CHATS_REQUEST), 999, null));
+        Thread.sleep(100);
+        assertFalse(offered.isDone());
+
+        sink.release();
+        offered.get(2, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shutdown_failsQueuedPackets() throws Exception {
+        start(new Sink(true), null, true);
+        blockOn(PacketType.SEND_MESSAGE);
+        CompletableFuture<Void> queued = writer.enqueue(packet(PacketType.SEND_MESSAGE), 1, null);
+
+        writer.shutdown();
+        try {
+            queued.get(2, TimeUnit.SECONDS);
+            fail("Pachet ramas in coada raportat ca trimis");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertTrue(writer.enqueue(packet(PacketType.SEND_MESSAGE), 2, null).isCompletedExceptionally());
+    }
+
+    private static void assertFailsWith(CompletableFuture<Void> future, String message) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Pachet acceptat intr-o coada plina");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+            assertTrue(expected.getCause().getMessage().contains(message));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.tcpclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProtocolFeaturesTest {
+
+    @Test
+    public void parse_readsFlagsAndValues() {
+        ProtocolFeatures features = ProtocolFeatures.parse(" bin, deflate=1 ,n=abc==,,");
+
+        assertTrue(features.has(ProtocolFeatures.BINARY_FRAMING));
+        assertEquals("", features.get(ProtocolFeatures.BINARY_FRAMING));
+        assertEquals("1", features.get(ProtocolFeatures.DEFLATE));
+        // Base64 poate contine '=' dupa primul
+        assertEquals("abc==", features.get(ProtocolFeatures.SERVER_NONCE));
+        assertEquals("bin,deflate=1,n=abc==", features.format());
+    }
+
+    @Test
+    public void parse_emptyOrNull_isNone() {
+        assertTrue(ProtocolFeatures.parse(null).isEmpty());
+        assertTrue(ProtocolFeatures.parse("").isEmpty());
+        assertSame(ProtocolFeatures.none(), ProtocolFeatures.parse(null));
+    }
+
+    @Test
+    public void agreedWith_keepsOnlyOptionsBothSidesHave() {
+        ProtocolFeatures client = ProtocolFeatures.parse("bin,b64,resume,hb");
+        ProtocolFeatures server = ProtocolFeatures.parse("bin,hb,future,n=xyz");
+
+        ProtocolFeatures agreed = client.agreedWith(server);
+        assertEquals("bin,hb", agreed.format());
+        assertFalse(agreed.has("future"));
+        assertFalse(agreed.has(ProtocolFeatures.SERVER_NONCE));
+    }
+
+    @Test
+    public void agreedWith_nothingInCommon_isNone() {
+        ProtocolFeatures agreed = ProtocolFeatures.parse("bin").agreedWith(ProtocolFeatures.parse("hb"));
+        assertSame(ProtocolFeatures.none(), agreed);
+    }
+
+    @Test
+    public void agreedWith_picksFirstCommonCipherInClientOrder() {
+        ProtocolFeatures client = ProtocolFeatures.parse("aead=chacha+aes");
+
+        assertEquals("chacha", client.agreedWith(ProtocolFeatures.parse("aead=aes+chacha")).get(ProtocolFeatures.AEAD));
+        assertEquals("aes", client.agreedWith(ProtocolFeatures.parse("aead=aes")).get(ProtocolFeatures.AEAD));
+        assertFalse(client.agreedWith(ProtocolFeatures.parse("aead=xchacha")).has(ProtocolFeatures.AEAD));
+    }
+
+    @Test
+    public void cipher_defaultsToAesWithoutAead() {
+        assertEquals(AeadContext.Algorithm.AES_GCM, ProtocolFeatures.none().cipher());
+        assertEquals(AeadContext.Algorithm.CHACHA20_POLY1305, ProtocolFeatures.parse("aead=chacha").cipher());
+    }
+
+    @Test
+    public void agreedWith_deflateNeedsSameDictionaryVersion() {
+        ProtocolFeatures client = ProtocolFeatures.parse("deflate=" + TunnelCompression.DICTIONARY_VERSION);
+
+        assertTrue(client.agreedWith(ProtocolFeatures.parse("deflate=" + TunnelCompression.DICTIONARY_VERSION))
+                .has(ProtocolFeatures.DEFLATE));
+        assertFalse(client.agreedWith(ProtocolFeatures.parse("deflate=2")).has(ProtocolFeatures.DEFLATE));
+        assertFalse(client.agreedWith(ProtocolFeatures.parse("deflate")).has(ProtocolFeatures.DEFLATE));
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.tcpclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TunnelCompressionTest {
+
+    private final TunnelCompression z = new TunnelCompression();
+
+    @After
+    public void tearDown() {
+        z.end();
+    }
+
+    private static byte[] chatList(int count) {
+        StringBuilder sb = new StringBuilder("{\"type\":\"GET_CHATS_RESPONSE\",\"senderId\":0,\"payload\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(i).append(",\"name\":\"Grupul ").append(i).append("\"}");
+        }
+        return sb.append("],\"requestId\":7}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void compressThenDecompress_roundTrips() throws IOException {
+        byte[] plain = chatList(40);
+        byte[] packed = z.compress(plain);
+
+        assertNotNull(packed);
+        assertTrue(packed.length < plain.length);
+        assertArrayEquals(plain, z.decompress(packed));
+    }
+
+    @Test
+    public void sameObject_isReusedAcrossRecords() throws IOException {
+        for (int n = 10; n <= 30; n += 10) {
+            byte[] plain = chatList(n);
+            assertArrayEquals(plain, z.decompress(z.compress(plain)));
+        }
+    }
+
+    @Test
+    public void randomBytes_areNotWorthCompressing() {
+        byte[] noise = new byte[4096];
+        new Random(42).nextBytes(noise);
+        assertNull(z.compress(noise));
+    }
+
+    @Test
+    public void inflatedOverCap_isRejected() {
+        // 17 MiB de zero-uri se comprima la cativa KB, peste limita de 16 MiB la decomprimare
+        byte[] packed = z.compress(new byte[17 * 1024 * 1024]);
+        assertNotNull(packed);
+
+        try {
+            z.decompress(packed);
+            fail("Record peste 16 MiB acceptat");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("prea mare"));
+        }
+    }
+
+    @Test
+    public void truncatedRecord_isRejected() {
+        byte[] packed = z.compress(chatList(40));
+        assertNotNull(packed);
+
+        try {
+            z.decompress(Arrays.copyOf(packed, packed.length / 2));
+            fail("Record trunchiat acceptat");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("trunchiat"));
+        }
+    }
+
+    @Test
+    public void garbage_isRejected() {
+        try {
+            z.decompress(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            fail("Date invalide acceptate");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void decompressAfterFailure_stillWorks() throws IOException {
+        byte[] plain = chatList(40);
+        byte[] packed = z.compress(plain);
+        try {
+            z.decompress(Arrays.copyOf(packed, packed.length / 2));
+        } catch (IOException expected) {
+        }
+        assertArrayEquals(plain, z.decompress(packed));
+    }
+
+    @Test
+    public void afterEnd_compressSendsPlain_decompressFails() {
+        // Instanta veche, inchisa dupa o cheie noua
+        z.end();
+
+        assertNull(z.compress(chatList(40)));
+        try {
+            z.decompress(new byte[]{1, 2, 3});
+            fail("Decompresie dupa end");
+        } catch (IOException expected) {
+        }
+    }
+}
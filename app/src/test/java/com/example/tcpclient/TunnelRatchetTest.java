@@ -0,0 +1,181 @@
+package com.example.tcpclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+public class TunnelRatchetTest {
+
+    private static final SecretKey SESSION = new SecretKeySpec(new byte[32], "AES");
+
+    @After
+    public void tearDown() {
+        TunnelRatchet.setLimits(1L << 20, 256L * 1024 * 1024);
+    }
+
+    // Ce calculeaza serverul pentru generatia urmatoare
+    private static SecretKey next(SecretKey current, String direction, long generation) throws Exception {
+        return TunnelKdf.deriveKey(current, "tunnel-rekey", direction.getBytes(StandardCharsets.US_ASCII),
+                ByteBuffer.allocate(8).putLong(generation).array());
+    }
+
+    private static AeadContext peer(SecretKey key) {
+        return AeadContext.forSession(key, AeadContext.Algorithm.AES_GCM);
+    }
+
+    private static byte[] text(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void underLimits_noKeyUpdate() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.seal(text("a"));
+        assertNull(ratchet.rekeyIfDue());
+    }
+
+    @Test
+    public void disabled_neverRekeys() throws Exception {
+        TunnelRatchet.setLimits(1, 1);
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, false, false);
+        ratchet.seal(text("a"));
+        assertNull(ratchet.rekeyIfDue());
+    }
+
+    @Test
+    public void keyUpdate_isSealedWithOldKey_thenNewKeyIsUsed() throws Exception {
+        TunnelRatchet.setLimits(2, Long.MAX_VALUE);
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+
+        byte[] before = ratchet.seal(text("unu"));
+        assertNull(ratchet.rekeyIfDue());
+        ratchet.seal(text("doi"));
+        byte[] update = ratchet.rekeyIfDue();
+        assertNotNull(update);
+        byte[] after = ratchet.seal(text("trei"));
+
+        AeadContext old = peer(SESSION);
+        assertArrayEquals(text("unu"), old.decryptBytes(before));
+        assertEquals("1", old.decrypt(update));
+
+        SecretKey gen1 = next(SESSION, "c2s", 1);
+        assertArrayEquals(text("trei"), peer(gen1).decryptBytes(after));
+
+        // Contoarele pornesc de la zero pe cheia noua
+        assertNull(ratchet.rekeyIfDue());
+        ratchet.seal(text("patru"));
+        assertEquals("2", peer(gen1).decrypt(ratchet.rekeyIfDue()));
+        byte[] gen2Record = ratchet.seal(text("cinci"));
+        assertArrayEquals(text("cinci"), peer(next(gen1, "c2s", 2)).decryptBytes(gen2Record));
+    }
+
+    @Test
+    public void byteLimit_alsoTriggersRekey() throws Exception {
+        TunnelRatchet.setLimits(Long.MAX_VALUE, 10);
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.seal(new byte[10]);
+        assertNotNull(ratchet.rekeyIfDue());
+    }
+
+    @Test
+    public void onKeyUpdate_switchesReceiveKey() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        AeadContext server = peer(SESSION);
+
+        assertArrayEquals(text("vechi"), ratchet.open(server.encrypt(text("vechi"))));
+        ratchet.onKeyUpdate(server.encrypt("1"));
+
+        AeadContext gen1 = peer(next(SESSION, "s2c", 1));
+        assertArrayEquals(text("nou"), ratchet.open(gen1.encrypt(text("nou"))));
+        try {
+            ratchet.open(server.encrypt(text("vechi")));
+            fail("Record cu cheia veche acceptat dupa KEY_UPDATE");
+        } catch (Exception expected) {
+        }
+    }
+
+    @Test
+    public void onKeyUpdate_usesServerDirection() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.onKeyUpdate(peer(SESSION).encrypt("1"));
+
+        // Cheia c2s nu trebuie sa deschida ce vine de la server
+        try {
+            ratchet.open(peer(next(SESSION, "c2s", 1)).encrypt(text("x")));
+            fail("Directia c2s acceptata la primire");
+        } catch (Exception expected) {
+        }
+    }
+
+    @Test
+    public void directional_clientSendsUnderItsOwnKey() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, false, true);
+        byte[] sealed = ratchet.seal(text("salut"));
+
+        assertArrayEquals(text("salut"), peer(next(SESSION, "c2s", 0)).decryptBytes(sealed));
+        // Nici cheia de sesiune, nici cheia serverului nu-l deschid: serverul, care trimite
+        // cu s2c, nu poate folosi aceeasi pereche (cheie, nonce) chiar daca prefixele coincid
+        for (SecretKey other : new SecretKey[]{SESSION, next(SESSION, "s2c", 0)}) {
+            try {
+                peer(other).decryptBytes(sealed);
+                fail("Record c2s deschis cu alta cheie");
+            } catch (Exception expected) {
+            }
+        }
+    }
+
+    @Test
+    public void directional_receivesOnlyServerKey() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, false, true);
+
+        AeadContext server = peer(next(SESSION, "s2c", 0));
+        assertArrayEquals(text("ok"), ratchet.open(server.encrypt(text("ok"))));
+        try {
+            ratchet.open(peer(next(SESSION, "c2s", 0)).encrypt(text("ecou")));
+            fail("Record sigilat cu cheia clientului acceptat la primire");
+        } catch (Exception expected) {
+        }
+    }
+
+    @Test
+    public void directional_rekeyStartsFromDirectionKey() throws Exception {
+        TunnelRatchet.setLimits(1, Long.MAX_VALUE);
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, true);
+        ratchet.seal(text("a"));
+
+        SecretKey gen0 = next(SESSION, "c2s", 0);
+        assertEquals("1", peer(gen0).decrypt(ratchet.rekeyIfDue()));
+        assertArrayEquals(text("b"), peer(next(gen0, "c2s", 1)).decryptBytes(ratchet.seal(text("b"))));
+
+        ratchet.onKeyUpdate(peer(next(SESSION, "s2c", 0)).encrypt("1"));
+        AeadContext server = peer(next(next(SESSION, "s2c", 0), "s2c", 1));
+        assertArrayEquals(text("c"), ratchet.open(server.encrypt(text("c"))));
+    }
+
+    @Test(expected = IOException.class)
+    public void onKeyUpdate_skippedGeneration_isRejected() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.onKeyUpdate(peer(SESSION).encrypt("2"));
+    }
+
+    @Test(expected = IOException.class)
+    public void onKeyUpdate_replayedGeneration_isRejected() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.onKeyUpdate(peer(SESSION).encrypt("1"));
+        ratchet.onKeyUpdate(peer(next(SESSION, "s2c", 1)).encrypt("1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void onKeyUpdate_nonNumeric_isRejected() throws Exception {
+        TunnelRatchet ratchet = new TunnelRatchet(SESSION, AeadContext.Algorithm.AES_GCM, true, false);
+        ratchet.onKeyUpdate(peer(SESSION).encrypt("abc"));
+    }
+}